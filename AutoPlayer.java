@@ -0,0 +1,283 @@
+/**
+ * Class AutoPlayer is a bot playing the game of a GameLoop, on its own thread.
+ *
+ * It plays through the same entry point as the player's keys: it submits
+ * command codes (GameEngine.CMD_*) to the game loop, and it sees the game
+ * only through the snapshots the loop publishes - never the engine.
+ *
+ * For every snapshot with a tetrad in play the bot
+ *   - copies the cells of the snapshot to its own game board (only if the
+ *     board changed)
+ *   - finds all placements the tetrad can reach (PlacementEnumerator) and
+ *     scores them (BoardEvaluator); the best one is the target, kept while
+ *     the tetrad is in play unless it cannot be reached anymore
+ *   - or, with a look-ahead search set, lets the search choose the target
+ *     looking at the stand-by tetrad and the preview too (LookaheadSearch)
+ *   - submits the moves on the path to the target, up to the first row the
+ *     tetrad has to drop to (the game drops it, fast drop requested), or all
+ *     of them and a hard drop if the rest of the path is dropping only
+ *   - waits until the game loop has applied the commands before looking at
+ *     the next snapshot
+ *
+ * A move delay makes the bot play at a watchable speed (demo kiosk), one
+ * move per delay; with no delay it plays as fast as it can (soak test).
+ * With auto restart a new game is started when a game is over. A game paused
+ * by the player stays paused.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+public class AutoPlayer implements Runnable
+{
+   private static final long NANOS_PER_MILLI = 1000000L;
+   // how often to look for a new snapshot
+   private static final long POLL_NANOS = NANOS_PER_MILLI;
+   // the longest wait for commands to be applied
+   private static final long APPLY_TIMEOUT_NANOS = 500*NANOS_PER_MILLI;
+
+   // the game played
+   private GameLoop loop;
+   // the bot's copy of the game board, the version of the snapshot copied
+   private GameBoard board;
+   private long boardVersion = -1;
+
+   private PlacementEnumerator enumerator;
+   private BoardEvaluator evaluator;
+   private volatile LookaheadSearch lookahead = null;
+
+   // the target of the tetrad in play: the board version and the block positions
+   private long targetVersion = -1;
+   private int[] target = new int[8];
+   private int[] pos = new int[8];
+
+   private volatile long moveDelay = 0;
+   private volatile boolean autoRestart = true;
+   private volatile long restartDelay = 0;
+
+   private Thread thread = null;
+   private volatile boolean running = false;
+
+   // statistics
+   private volatile long placements = 0;
+   private volatile long gamesPlayed = 0;
+
+   /**
+    * Constructor
+    * @param GameLoop - the game to play
+    * @param int row - the row number of the game board
+    * @param int col - the colum number of the game board
+    * @param BoardEvaluator - scores the placements (one for this bot only)
+    */
+   public AutoPlayer(GameLoop l, int row, int col, BoardEvaluator eval)
+   {
+      loop = l;
+      board = new GameBoard(row, col);
+      enumerator = new PlacementEnumerator(row, col);
+      evaluator = eval;
+   }
+
+   /**
+    * @param long: the time between two moves, in milliseconds (0 - no delay)
+    */
+   public void setMoveDelay(long millis) {  moveDelay = millis*NANOS_PER_MILLI;  }
+
+   /**
+    * @param LookaheadSearch: the search choosing the targets (used by the bot
+    *                         thread only), null - the evaluator chooses
+    */
+   public void setLookahead(LookaheadSearch search) {  lookahead = search;  }
+
+   /**
+    * @param boolean: true - start a new game when the game is over
+    * @param long: the time to show the game over before restarting, in milliseconds
+    */
+   public void setAutoRestart(boolean restart, long delayMillis)
+   {
+      autoRestart = restart;
+      restartDelay = delayMillis*NANOS_PER_MILLI;
+   }
+
+   /**
+    * @return long: the number of tetrads placed by the bot
+    */
+   public long getPlacements() {  return placements;  }
+
+   /**
+    * @return long: the number of games the bot finished (game over)
+    */
+   public long getGamesPlayed() {  return gamesPlayed;  }
+
+   /**
+    * @return boolean: true if the bot is playing
+    */
+   public boolean isRunning() {  return running;  }
+
+   /**
+    * start the bot thread (a daemon thread)
+    */
+   public void start()
+   {
+      running = true;
+      thread = new Thread(this, "auto-player");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * stop the bot thread, the game goes on as it is
+    */
+   public void stop()
+   {
+      running = false;
+      if ( thread != null ) LockSupport.unpark(thread);
+   }
+
+   /**
+    * the bot: look at the new snapshots and submit the moves
+    */
+   public void run()
+   {
+      BoardSnapshot seen = null;
+
+      while ( running ) {
+         BoardSnapshot snapshot = loop.getSnapshot();
+         if ( snapshot == seen ) {
+            LockSupport.parkNanos(this, POLL_NANOS);
+            continue;
+         }
+         seen = snapshot;
+
+         if ( !snapshot.gameStarted() || snapshot.gameOver() ) {
+            if ( !autoRestart ) continue;
+            if ( snapshot.gameOver() ) {
+               gamesPlayed++;
+               LockSupport.parkNanos(this, restartDelay);
+            }
+            if ( running ) submitAndWait( new int[]{ GameEngine.CMD_ENTER } );
+            continue;
+         }
+         if ( snapshot.gamePaused() || snapshot.getCurrTetrad() == null ) continue;
+
+         int[] commands = plan(snapshot);
+         if ( commands.length == 0 ) continue;
+         submitAndWait(commands);
+         if ( moveDelay > 0 ) LockSupport.parkNanos(this, moveDelay);
+      }
+   }
+
+   /*
+    * the commands to submit for the tetrad of the snapshot
+    */
+   private int[] plan(BoardSnapshot snapshot)
+   {
+      if ( snapshot.boardVersion != boardVersion ) {
+         board.loadCells( snapshot.getCells() );
+         boardVersion = snapshot.boardVersion;
+      }
+
+      Tetrad tetrad = snapshot.getCurrTetrad();
+      int count = enumerator.enumerate(board, tetrad);
+      if ( count == 0 ) return new int[0];
+
+      // the target chosen for this tetrad, if it can still be reached
+      int chosen = -1;
+      if ( targetVersion == boardVersion ) {
+         for ( int ix = 0; ix < count && chosen < 0; ix++ ) {
+            enumerator.getBlockPos(ix, pos);
+            if ( java.util.Arrays.equals(pos, target) ) chosen = ix;
+         }
+      }
+      LookaheadSearch search = lookahead;
+      if ( chosen < 0 && search != null && search.search(board, tetrad, upcoming(snapshot), target) ) {
+         for ( int ix = 0; ix < count && chosen < 0; ix++ ) {
+            enumerator.getBlockPos(ix, pos);
+            if ( java.util.Arrays.equals(pos, target) ) chosen = ix;
+         }
+         targetVersion = boardVersion;
+      }
+      if ( chosen < 0 ) {
+         double best = Double.NEGATIVE_INFINITY;
+         for ( int ix = 0; ix < count; ix++ ) {
+            enumerator.getBlockPos(ix, pos);
+            double score = evaluator.evaluate(board, pos);
+            if ( score > best ) {
+               best = score;
+               chosen = ix;
+            }
+         }
+         enumerator.getBlockPos(chosen, target);
+         targetVersion = boardVersion;
+      }
+
+      return toCommands( enumerator.getPath(chosen) );
+   }
+
+   /*
+    * the types of the tetrads coming after the active one: the stand-by
+    * tetrad and the preview
+    */
+   private static int[] upcoming(BoardSnapshot snapshot)
+   {
+      if ( snapshot.getNextTetrad() == null ) return new int[0];
+      int[] types = new int[1 + snapshot.getPreviewNr()];
+      types[0] = snapshot.getNextTetrad().getTypeIx();
+      for ( int ix = 1; ix < types.length; ix++ ) {
+         types[ix] = snapshot.getPreviewTetrad(ix - 1).getTypeIx();
+      }
+      return types;
+   }
+
+   /*
+    * the commands for the moves up to the first drop (one move only with a
+    * move delay), a hard drop if only drops are left
+    */
+   private int[] toCommands(int[] path)
+   {
+      int first = 0;
+      while ( first < path.length && path[first] != PlacementEnumerator.MOVE_DOWN ) first++;
+      boolean dropsOnly = true;
+      for ( int ix = first; ix < path.length && dropsOnly; ix++ ) {
+         dropsOnly = path[ix] == PlacementEnumerator.MOVE_DOWN;
+      }
+
+      int moveNr = first;
+      if ( moveDelay > 0 && moveNr > 1 ) {
+         moveNr = 1;
+         dropsOnly = false;
+      }
+      if ( moveNr == 0 && !dropsOnly ) {
+         // wait for the tetrad to drop - faster
+         return new int[]{ GameEngine.CMD_FAST_DROP };
+      }
+
+      int[] commands = new int[ dropsOnly ? moveNr + 1 : moveNr ];
+      for ( int ix = 0; ix < moveNr; ix++ ) {
+         switch ( path[ix] ) {
+            case PlacementEnumerator.MOVE_LEFT:   commands[ix] = GameEngine.CMD_SHIFT_LEFT;  break;
+            case PlacementEnumerator.MOVE_RIGHT:  commands[ix] = GameEngine.CMD_SHIFT_RIGHT; break;
+            default:                              commands[ix] = GameEngine.CMD_ROTATE;      break;
+         }
+      }
+      if ( dropsOnly ) {
+         commands[moveNr] = GameEngine.CMD_HARD_DROP;
+         placements++;
+      }
+      return commands;
+   }
+
+   /*
+    * submit the commands and wait until the game loop has applied them
+    * (or the time out - e.g. the player submitted commands too)
+    */
+   private void submitAndWait(int[] commands)
+   {
+      long target = loop.getCommandsApplied() + commands.length;
+      for ( int cmd : commands ) loop.submit(cmd);
+
+      long deadline = System.nanoTime() + APPLY_TIMEOUT_NANOS;
+      while ( running && loop.getCommandsApplied() < target && System.nanoTime() < deadline ) {
+         LockSupport.parkNanos(this, POLL_NANOS);
+      }
+   }
+
+} // end of class AutoPlayer
@@ -0,0 +1,69 @@
+/**
+ * The 7-bag tetrad source (see TetradSource): the 7 tetrad types are put in
+ * a bag in a shuffled order and dealt one by one; when the bag is empty it is
+ * refilled and shuffled again. The colors are picked at random.
+ */
+
+import java.nio.ByteBuffer;
+
+public class BagTetradSource implements TetradSource
+{
+   private long seed;
+   private SplitMix64 rand;
+
+   // the bag: the types at [next, TYPE_NR) are still to be dealt
+   private int[] bag = new int[Tetrad.TYPE_NR];
+   private int next = Tetrad.TYPE_NR;
+
+   /**
+    * @param long - the seed of the sequence
+    */
+   public BagTetradSource(long s)
+   {
+      seed = s;
+      rand = new SplitMix64(s);
+      for ( int t = 0; t < bag.length; ++t ) bag[t] = t;
+   }
+
+   public Tetrad next()
+   {
+      if ( next >= bag.length ) {
+         // refill: Fisher-Yates shuffle of the (full) bag
+         for ( int ix = bag.length - 1; ix > 0; --ix ) {
+            int jx = rand.nextInt(ix + 1);
+            int t = bag[ix];  bag[ix] = bag[jx];  bag[jx] = t;
+         }
+         next = 0;
+      }
+      int type = bag[next++];
+      // index 0 is for empty cell
+      return Tetrad.next( type, 1 + rand.nextInt(ColorServer.TETRAD_COLOR_NR) );
+   }
+
+   public long getSeed() {  return seed;  }
+
+   public Mode getMode() {  return Mode.BAG;  }
+
+   // the state: the generator, the bag and the types dealt from it
+   public void saveState(ByteBuffer out)
+   {
+      out.putLong( rand.getState() );
+      out.put( (byte)next );
+      for ( int t : bag ) out.put( (byte)t );
+   }
+
+   public void restoreState(ByteBuffer in)
+   {
+      rand.setState( in.getLong() );
+      next = GameBoard.checkRange( in.get(), 0, bag.length, "bag position" );
+      // the bag holds each type once
+      int types = 0;
+      for ( int ix = 0; ix < bag.length; ++ix ) {
+         bag[ix] = GameBoard.checkRange( in.get(), 0, Tetrad.TYPE_NR - 1, "tetrad type" );
+         if ( (types & 1 << bag[ix]) != 0 )
+            throw new IllegalArgumentException("tetrad type " + bag[ix] + " twice in the bag");
+         types |= 1 << bag[ix];
+      }
+   }
+
+} // end of class BagTetradSource
@@ -0,0 +1,271 @@
+/**
+ * The batch simulator plays many independent games headless and reports
+ * aggregate results: scores, lines cleared and placements per second.
+ *
+ * The games are spread over a ForkJoinPool (all cores by default):
+ *   - game i gets its own seed derived from the base seed and i, and its
+ *     own GameEngine, i.e. its own tetrad source (random or 7-bag mode) -
+ *     games never share a random generator, so the threads do not contend
+ *   - game i gets its own GamePolicy, created from its seed by the policy
+ *     factory given to run()
+ *   - a game ends when it is over or reached the placement limit
+ *
+ * Every game is played by hard drops only: the policy moves the active
+ * tetrad, then the simulator drops it to the ground. No timer is involved.
+ *
+ * The main method runs a batch from the command line:
+ *    java BatchSimulator [games [seed [threads [random|bag]]]]
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongFunction;
+
+public class BatchSimulator
+{
+   /*
+    * a task plays this many games or fewer sequentially, more are split
+    */
+   private static final int GAMES_PER_TASK = 4;
+
+   // the game board size of the simulated games
+   private int rowNr;
+   private int colNr;
+   // a game stops after this many tetrads were fixed on the board
+   private long maxPlacements;
+   // the randomizer of the tetrad sources
+   private TetradSource.Mode mode = TetradSource.Mode.RANDOM;
+   // the tetrads known in advance: the stand-by tetrad and the preview
+   private int previewNr = 1;
+
+   /**
+    * The constructor
+    * @param int r - row number of the game boards
+    * @param int c - colum number of the game boards
+    * @param long m - a game stops after m placements if not over before
+    */
+   public BatchSimulator(int r, int c, long m)
+   {
+      rowNr = r;
+      colNr = c;
+      maxPlacements = m;
+   }
+
+   /**
+    * @param TetradSource.Mode - the randomizer of the games' tetrad sources
+    */
+   public void setMode(TetradSource.Mode m) {  mode = m;  }
+
+   /**
+    * @param int - the number of tetrads the policies see in advance
+    *              (GameEngine.setPreviewNr), 1 - the stand-by tetrad only
+    */
+   public void setPreviewNr(int n) {  previewNr = n;  }
+
+   /**
+    * Play a batch of games
+    *
+    * @param int - the number of games
+    * @param long - the base seed; game i is seeded with gameSeed(seed, i)
+    * @param LongFunction<GamePolicy> - creates the policy for a game from its seed
+    * @param int - number of threads (<= 0: all available processors)
+    * @return Result - the aggregate results of the batch
+    */
+   public Result run(int games, long seed, LongFunction<GamePolicy> policies, int threads)
+   {
+      if ( threads <= 0 ) threads = Runtime.getRuntime().availableProcessors();
+
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         long start = System.nanoTime();
+         Result result = pool.invoke( new GamesTask(0, games, seed, policies) );
+         result.elapsedNanos = System.nanoTime() - start;
+         return result;
+      } finally {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * Play one game to its end or to the placement limit
+    *
+    * @param long - the seed of the game
+    * @param GamePolicy - plays the game
+    * @return GameEngine - the engine in its final state
+    */
+   public GameEngine play(long seed, GamePolicy policy)
+   {
+      GameEngine engine = new GameEngine( rowNr, colNr, TetradSource.create(mode, seed) );
+      engine.setPreviewNr(previewNr);
+      engine.enter();
+      while ( !engine.gameOver() && engine.getPlacements() < maxPlacements ) {
+         policy.placeTetrad(engine);
+         engine.hardDrop();
+      }
+      return engine;
+   }
+
+   /**
+    * The seed of a game in a batch - the SplitMix64 finalizer spreads
+    * consecutive game indexes over the whole seed space, so every game
+    * (whichever thread plays it) has its own independent stream
+    *
+    * @param long - the base seed of the batch
+    * @param int - the index of the game in the batch
+    * @return long - the seed of the game
+    */
+   public static long gameSeed(long seed, int game)
+   {
+      return SplitMix64.mix64( seed + (game + 1) * 0x9E3779B97F4A7C15L );
+   }
+
+   /*
+    * plays the games [from, to) of the batch, splits if there are too many
+    */
+   private class GamesTask extends RecursiveTask<Result>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private int from;
+      private int to;
+      private long seed;
+      private LongFunction<GamePolicy> policies;
+
+      GamesTask(int f, int t, long s, LongFunction<GamePolicy> p)
+      {
+         from = f;   to = t;
+         seed = s;
+         policies = p;
+      }
+
+      protected Result compute()
+      {
+         if ( to - from > GAMES_PER_TASK ) {
+            int mid = (from + to) >>> 1;
+            GamesTask left = new GamesTask(from, mid, seed, policies);
+            left.fork();
+            Result result = new GamesTask(mid, to, seed, policies).compute();
+            result.add( left.join() );
+            return result;
+         }
+
+         Result result = new Result();
+         for ( int g = from; g < to; ++g ) {
+            long gameSeed = gameSeed(seed, g);
+            GameEngine engine = play(gameSeed, policies.apply(gameSeed));
+            result.addGame(engine);
+         }
+         return result;
+      }
+   }
+
+   /**
+    * The aggregate results of a batch
+    */
+   public static class Result
+   {
+      private int  games = 0;
+      private long totalScores = 0;
+      private long maxScores = 0;
+      private long linesCleared = 0;
+      private long placements = 0;
+      private long elapsedNanos = 0;
+
+      /*
+       * count a finished game
+       */
+      void addGame(GameEngine engine)
+      {
+         games++;
+         totalScores += engine.getScores();
+         maxScores = Math.max(maxScores, engine.getScores());
+         linesCleared += engine.getLinesCleared();
+         placements += engine.getPlacements();
+      }
+
+      /*
+       * merge the result of another part of the batch
+       */
+      void add(Result other)
+      {
+         games += other.games;
+         totalScores += other.totalScores;
+         maxScores = Math.max(maxScores, other.maxScores);
+         linesCleared += other.linesCleared;
+         placements += other.placements;
+      }
+
+      public int  getGames() {  return games;  }
+      public long getTotalScores() {  return totalScores;  }
+      public long getMaxScores() {  return maxScores;  }
+      public long getLinesCleared() {  return linesCleared;  }
+      public long getPlacements() {  return placements;  }
+      public long getElapsedNanos() {  return elapsedNanos;  }
+
+      /**
+       * @return double: the average scores of the games
+       */
+      public double getAverageScores()
+      {
+         return games == 0 ? 0 : (double)totalScores / games;
+      }
+
+      /**
+       * @return double: tetrads placed per second over the whole batch
+       */
+      public double getPlacementsPerSecond()
+      {
+         return elapsedNanos == 0 ? 0 : placements * 1e9 / elapsedNanos;
+      }
+
+      public String toString()
+      {
+         return String.format("%d games: scores avg %.1f max %d, lines %d, "
+                              + "placements %d (%.0f/s), %.3f s",
+                              games, getAverageScores(), maxScores, linesCleared,
+                              placements, getPlacementsPerSecond(), elapsedNanos / 1e9);
+      }
+   }
+
+   /**
+    * A policy that rotates and shifts the active tetrad at random
+    */
+   public static class RandomPolicy implements GamePolicy
+   {
+      private SplitMix64 rand;
+
+      /**
+       * @param long - the seed of the game; the policy's own generator is
+       *               seeded from it but differs from the engine's generator
+       */
+      public RandomPolicy(long seed)
+      {
+         rand = new SplitMix64( gameSeed(seed, 0) );
+      }
+
+      public void placeTetrad(GameEngine engine)
+      {
+         for ( int r = rand.nextInt(4); r > 0; --r ) engine.rotate();
+         int colNr = engine.getGameBoard().colNr();
+         int shift = rand.nextInt(colNr) - colNr/2;
+         int dir = shift < 0 ? -1 : 1;
+         for ( ; shift != 0 && engine.shift(dir); shift -= dir ) { }
+      }
+   }
+
+   /**
+    * Run a batch of games with the random policy and print the results
+    * @param String[] - [games [seed [threads [random|bag]]]]
+    */
+   public static void main(String[] args)
+   {
+      int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+      int threads = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+      BatchSimulator simulator = new BatchSimulator(23, 16, 100000);
+      if ( args.length > 3 ) simulator.setMode( TetradSource.Mode.valueOf(args[3].toUpperCase()) );
+      System.out.println( simulator.run(games, seed, RandomPolicy::new, threads) );
+   }
+
+} // end of class BatchSimulator
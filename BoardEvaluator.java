@@ -0,0 +1,286 @@
+/**
+ * Class BoardEvaluator scores the placement of a tetrad on a game board, for
+ * a bot choosing where to place its tetrads (see AutoPlayer).
+ *
+ * The score is a weighted sum of features of the board after the placement
+ * (and the full rows removed):
+ *   - aggregate height: the sum of the colum heights
+ *   - holes: the empty cells under the top cell of their colum
+ *   - bumpiness: the sum of the height differences of neighbour colums
+ *   - lines: the number of full rows removed by the placement
+ *   - wells: the sum of the depths of the colums lower than both neighbours
+ *     (the sides of the board as high as the board)
+ * The weights are given to the constructor; a higher score is a better
+ * placement, so the weights of the bad features are negative.
+ *
+ * The features are computed incrementally:
+ *   - the heights come from the colum surface the game board keeps
+ *   - the holes of every colum are counted once per board version, and
+ *     for a placement only the colums of its blocks are counted again
+ *   - only a placement removing full rows counts all colums again
+ *
+ * An evaluator is not thread safe - one per thread.
+ */
+
+public class BoardEvaluator
+{
+   // the weights of the features
+   private double heightWeight;
+   private double holeWeight;
+   private double bumpinessWeight;
+   private double lineWeight;
+   private double wellWeight;
+
+   /*
+    * the features of the board before the placement, per colum
+    *   kept while the board and its version are the same
+    */
+   private GameBoard board = null;
+   private long version = -1;
+   private int[] height = null;
+   private int[] holes = null;
+   private int totalHoles = 0;
+
+   // the features after the placement last evaluated
+   private int[] newHeight = null;
+   private int lastHeight = 0;
+   private int lastHoles = 0;
+   private int lastBumpiness = 0;
+   private int lastLines = 0;
+   private int lastWells = 0;
+
+   // the rows removed by the placement
+   private boolean[] fullRow = null;
+
+   /**
+    * Constructor specifying the weights of the features
+    * @param double - the weight of the aggregate height
+    * @param double - the weight of the holes
+    * @param double - the weight of the bumpiness
+    * @param double - the weight of the lines removed
+    * @param double - the weight of the wells
+    */
+   public BoardEvaluator(double heightW, double holeW, double bumpinessW, double lineW, double wellW)
+   {
+      heightWeight = heightW;
+      holeWeight = holeW;
+      bumpinessWeight = bumpinessW;
+      lineWeight = lineW;
+      wellWeight = wellW;
+   }
+
+   /**
+    * @return BoardEvaluator: an evaluator with weights known to play well
+    *                         (height -0.51, holes -0.36, bumpiness -0.18,
+    *                         lines 0.76, wells -0.1)
+    */
+   public static BoardEvaluator standard()
+   {
+      return new BoardEvaluator(-0.510066, -0.35663, -0.184483, 0.760666, -0.1);
+   }
+
+   /**
+    * @return BoardEvaluator: an evaluator with the same weights (for another thread)
+    */
+   public BoardEvaluator copy()
+   {
+      return new BoardEvaluator(heightWeight, holeWeight, bumpinessWeight, lineWeight, wellWeight);
+   }
+
+   /**
+    * @return double: the weight of the lines removed
+    */
+   public double getLineWeight() {  return lineWeight;  }
+
+   /**
+    * Parse the weights from a string: "height,holes,bumpiness,lines,wells"
+    * (e.g. from the command line)
+    * @param String - five numbers separated by commas
+    * @return BoardEvaluator: the evaluator with the weights
+    */
+   public static BoardEvaluator parse(String weights)
+   {
+      String[] parts = weights.split(",");
+      if ( parts.length != 5 )
+         throw new IllegalArgumentException("5 weights expected: " + weights);
+      double[] w = new double[5];
+      for ( int ix = 0; ix < 5; ix++ ) w[ix] = Double.parseDouble( parts[ix].trim() );
+      return new BoardEvaluator(w[0], w[1], w[2], w[3], w[4]);
+   }
+
+   /**
+    * Score the placement of tetrad blocks on the board (the board is not changed)
+    * pre-condition: the blocks are on empty cells of the board
+    * @param GameBoard - the board
+    * @param int[] - the positions of the blocks {c0, r0, ..., c3, r3}
+    * @return double: the score of the board after the placement, higher is better
+    */
+   public double evaluate(GameBoard b, int[] blkPos)
+   {
+      sync(b);
+      int rowNr = board.rowNr();
+      int colNr = board.colNr();
+
+      // the full rows: the rows of the blocks filled up by them
+      int lines = 0;
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         int r = blkPos[ix + 1];
+         if ( fullRow[r] ) continue;
+         int fill = board.getRowFill(r);
+         for ( int j = 0; j < 8; j += 2 ) {
+            if ( blkPos[j + 1] == r ) fill++;
+         }
+         if ( fill == colNr ) {
+            fullRow[r] = true;
+            lines++;
+         }
+      }
+
+      int holeNr;
+      if ( lines == 0 ) {
+         // only the colums of the blocks changed
+         System.arraycopy(height, 0, newHeight, 0, colNr);
+         holeNr = totalHoles;
+         for ( int ix = 0; ix < 8; ix += 2 ) {
+            int c = blkPos[ix];
+            if ( isCounted(blkPos, ix, c) ) continue;
+            int top = columnTop(blkPos, c);
+            newHeight[c] = rowNr - top;
+            holeNr += countHoles(blkPos, c, top) - holes[c];
+         }
+      } else {
+         holeNr = countAll(blkPos);
+         for ( int ix = 0; ix < 8; ix += 2 ) fullRow[blkPos[ix + 1]] = false;
+      }
+
+      // the height, bumpiness and wells from the colum heights
+      int aggregate = 0, bumpiness = 0, wells = 0;
+      for ( int c = 0; c < colNr; c++ ) {
+         int h = newHeight[c];
+         aggregate += h;
+         int left = ( c > 0 ) ? newHeight[c - 1] : rowNr;
+         int right = ( c < colNr - 1 ) ? newHeight[c + 1] : rowNr;
+         if ( c < colNr - 1 ) bumpiness += Math.abs(h - right);
+         int depth = Math.min(left, right) - h;
+         if ( depth > 0 ) wells += depth;
+      }
+
+      lastHeight = aggregate;
+      lastHoles = holeNr;
+      lastBumpiness = bumpiness;
+      lastLines = lines;
+      lastWells = wells;
+      return heightWeight*aggregate + holeWeight*holeNr + bumpinessWeight*bumpiness
+             + lineWeight*lines + wellWeight*wells;
+   }
+
+   /*
+    * The features of the placement last evaluated
+    */
+   public int getAggregateHeight() {  return lastHeight;  }
+   public int getHoles() {  return lastHoles;  }
+   public int getBumpiness() {  return lastBumpiness;  }
+   public int getLines() {  return lastLines;  }
+   public int getWells() {  return lastWells;  }
+
+   /*
+    * count the heights and holes of the board if the board or its version changed
+    */
+   private void sync(GameBoard b)
+   {
+      if ( b == board && b.getVersion() == version ) return;
+      if ( board == null || b.rowNr() != board.rowNr() || b.colNr() != board.colNr() ) {
+         height = new int[b.colNr()];
+         holes = new int[b.colNr()];
+         newHeight = new int[b.colNr()];
+         fullRow = new boolean[b.rowNr()];
+      }
+      board = b;
+      version = b.getVersion();
+
+      totalHoles = 0;
+      for ( int c = 0; c < b.colNr(); c++ ) {
+         int top = b.getColumnTop(c);
+         height[c] = b.rowNr() - top;
+         holes[c] = 0;
+         for ( int r = top + 1; r < b.rowNr(); r++ ) {
+            if ( !b.isOccupied(c, r) ) holes[c]++;
+         }
+         totalHoles += holes[c];
+      }
+   }
+
+   /*
+    * @return boolean: true if a block before the ix-th one is on the colum
+    */
+   private static boolean isCounted(int[] blkPos, int ix, int c)
+   {
+      for ( int j = 0; j < ix; j += 2 ) {
+         if ( blkPos[j] == c ) return true;
+      }
+      return false;
+   }
+
+   /*
+    * @return int: the top of the colum with the blocks placed
+    */
+   private int columnTop(int[] blkPos, int c)
+   {
+      int top = board.getColumnTop(c);
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         if ( blkPos[ix] == c && blkPos[ix + 1] < top ) top = blkPos[ix + 1];
+      }
+      return top;
+   }
+
+   /*
+    * @return int: the empty cells under the top of the colum, the blocks placed
+    */
+   private int countHoles(int[] blkPos, int c, int top)
+   {
+      int count = 0;
+      for ( int r = top + 1; r < board.rowNr(); r++ ) {
+         if ( !board.isOccupied(c, r) && !isBlock(blkPos, c, r) ) count++;
+      }
+      return count;
+   }
+
+   /*
+    * the heights (into newHeight) and the holes of all colums, the blocks
+    * placed and the full rows removed
+    * @return int: the number of holes
+    */
+   private int countAll(int[] blkPos)
+   {
+      int rowNr = board.rowNr();
+      int holeNr = 0;
+      for ( int c = 0; c < board.colNr(); c++ ) {
+         int h = 0;
+         int colHoles = 0;
+         boolean top = false;
+         for ( int r = 0; r < rowNr; r++ ) {
+            if ( fullRow[r] ) continue;
+            boolean filled = board.isOccupied(c, r) || isBlock(blkPos, c, r);
+            if ( top ) {
+               h++;
+               if ( !filled ) colHoles++;
+            } else if ( filled ) {
+               top = true;
+               h = 1;
+            }
+         }
+         newHeight[c] = h;
+         holeNr += colHoles;
+      }
+      return holeNr;
+   }
+
+   private static boolean isBlock(int[] blkPos, int c, int r)
+   {
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         if ( blkPos[ix] == c && blkPos[ix + 1] == r ) return true;
+      }
+      return false;
+   }
+
+} // end of class BoardEvaluator
@@ -0,0 +1,293 @@
+/**
+ * Class BoardScaling measures the cost of the game board as its size grows:
+ * the memory the cells take (GameBoard.getFootprint) and the time to clear a
+ * full row, for boards of up to thousands of rows and hundreds of colums
+ * (the numbers are in the class comment of GameBoard).
+ *
+ * The GameBoard (its ring of rows) is measured against a dense board, the
+ * way the game board kept its rows before (DenseBoard): all rows allocated,
+ * the cells above a removed row copied one by one and rehashed.
+ *
+ * The board has a stack of h rows; every row of the stack is full but for a
+ * gap of 4 cells at a random colum. A clear fills the gap of a row of the
+ * stack (the bottom row, or the middle row), and clearFullRows removes it -
+ * only that call is timed. A new row is put on top of the stack, so it keeps
+ * its height. A measure stops after the clears asked for or after a second,
+ * whichever comes first.
+ *
+ * The main method prints a line per board size:
+ *    java BoardScaling [clears [seed]]
+ */
+
+import java.util.Random;
+
+public class BoardScaling
+{
+   // the boards measured: rowNr, colNr (a multiple of 4), stack height
+   private static final int[][] BOARDS = {
+      {    23,  16,   12 },
+      {  1000, 100,  100 },
+      {  5000, 200,  500 },
+      { 20000, 500, 2000 } };
+
+   // a measure stops after this time (the dense board clears slowly)
+   private static final long MEASURE_NANOS = 1000000000L;
+
+   /**
+    * The board measured: what a clear needs of it
+    */
+   public interface Rows
+   {
+      void placeBlocks(int[] blockPos, int blkColorIx);
+      int clearFullRows();
+      /**
+       * @return long: the bytes its cells take
+       */
+      long getFootprint();
+   }
+
+   private Rows board;
+   private int rowNr;
+   private int colNr;
+   private int height;
+   private Random random;
+   // the colum of the gap of every row
+   private int[] gaps;
+   private int[] blkPos = new int[8];
+
+   /**
+    * Constructor - a board with a stack of the given height
+    * @param Rows - the board, empty
+    * @param int - the row number
+    * @param int - the colum number, a multiple of 4
+    * @param int - the height of the stack
+    * @param long - the seed of the gaps
+    */
+   public BoardScaling(Rows b, int row, int col, int h, long seed)
+   {
+      board = b;
+      rowNr = row;
+      colNr = col;
+      height = h;
+      random = new Random(seed);
+      gaps = new int[rowNr];
+      for ( int r = rowNr - 1; r >= rowNr - height; r-- ) addRow(r);
+   }
+
+   /**
+    * Clear a row of the stack
+    * @param int - how deep in the stack the row is: 0 the bottom row
+    * @return long: the time clearFullRows took, in nanoseconds
+    */
+   public long clear(int depth)
+   {
+      int r = rowNr - 1 - depth;
+      putBlocks(gaps[r], r);
+      long start = System.nanoTime();
+      int removed = board.clearFullRows();
+      long nanos = System.nanoTime() - start;
+      if ( removed != 1 ) throw new IllegalStateException(removed + " rows removed");
+
+      // the gaps of the rows above dropped with them
+      System.arraycopy(gaps, rowNr - height, gaps, rowNr - height + 1, height - 1 - depth);
+      addRow(rowNr - height);
+      return nanos;
+   }
+
+   /**
+    * Clear a row of the stack again and again
+    * @param int - how deep in the stack the row is: 0 the bottom row
+    * @param int - the clears at most
+    * @return double: the mean time of clearFullRows, in microseconds
+    */
+   public double measure(int depth, int clears)
+   {
+      long nanos = 0;
+      long end = System.nanoTime() + MEASURE_NANOS;
+      int n = 0;
+      while ( n < clears && (n == 0 || System.nanoTime() < end) ) {
+         nanos += clear(depth);
+         n++;
+      }
+      return nanos/1e3/n;
+   }
+
+   /**
+    * @return Rows: the board measured
+    */
+   public Rows getBoard() {  return board;  }
+
+   /*
+    * fill row r but for a gap of 4 cells
+    */
+   private void addRow(int r)
+   {
+      gaps[r] = 4*random.nextInt(colNr/4);
+      for ( int c = 0; c < colNr; c += 4 ) {
+         if ( c != gaps[r] ) putBlocks(c, r);
+      }
+   }
+
+   /*
+    * place 4 blocks on row r, from colum c to its right
+    */
+   private void putBlocks(int c, int r)
+   {
+      for ( int ix = 0; ix < 4; ix++ ) {
+         blkPos[2*ix] = c + ix;
+         blkPos[2*ix + 1] = r;
+      }
+      board.placeBlocks(blkPos, 1 + (c + r)%7);
+   }
+
+   /**
+    * Measure the boards and print the memory and the clear time of each
+    * @param String[] - the clears per board and position, the seed
+    */
+   public static void main(String[] args)
+   {
+      int clears = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+      long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+      System.out.println("      board        h   memory (KB)      clear bottom (us)  clear middle (us)");
+      System.out.println("                       dense   ring      dense    ring      dense    ring");
+      for ( int[] size : BOARDS ) {
+         final GameBoard gameBoard = new GameBoard(size[0], size[1]);
+         Rows ring = new Rows() {
+            public void placeBlocks(int[] blockPos, int blkColorIx) {  gameBoard.placeBlocks(blockPos, blkColorIx);  }
+            public int clearFullRows() {  return gameBoard.clearFullRows();  }
+            public long getFootprint() {  return gameBoard.getFootprint();  }
+         };
+         BoardScaling[] benches = { new BoardScaling(new DenseBoard(size[0], size[1]), size[0], size[1], size[2], seed),
+                                    new BoardScaling(ring, size[0], size[1], size[2], seed) };
+         // [bottom, middle][dense, ring]
+         double[][] micros = new double[2][2];
+         for ( int pass = 0; pass < 2; pass++ ) {   // the first pass warms up
+            for ( int pos = 0; pos < 2; pos++ ) {
+               for ( int b = 0; b < 2; b++ ) micros[pos][b] = benches[b].measure( pos*size[2]/2, clears );
+            }
+         }
+         System.out.println(String.format("%7d x %3d %6d %7d %6d %10.1f %6.1f %10.1f %6.1f",
+                                          size[0], size[1], size[2],
+                                          benches[0].getBoard().getFootprint()/1024,
+                                          benches[1].getBoard().getFootprint()/1024,
+                                          micros[0][0], micros[0][1], micros[1][0], micros[1][1]));
+      }
+   }
+
+   /**
+    * The rows of a board the way the game board kept them before its ring of
+    * rows: an array of colors for every row, allocated up front, and the
+    * bitboard (a mask per row). The full rows are found bottom up from the
+    * masks; the cells of the rows above a full row are copied one row down
+    * one by one, their keys moved in the Zobrist hash cell by cell, and the
+    * masks moved with one arraycopy.
+    */
+   public static class DenseBoard implements Rows
+   {
+      private int rowNr;
+      private int colNr;
+      private int wordNr;
+      private int[][] cells;
+      private long[] rowBits;
+      // the mask of a full last word of a row
+      private long lastWordFull;
+      private int[] colTop;
+      // cells at and above this row are all empty
+      private int emptyRowStart;
+      private long hash = 0;
+
+      /**
+       * Constructor - an empty board
+       * @param int - the row number
+       * @param int - the colum number
+       */
+      public DenseBoard(int row, int col)
+      {
+         rowNr = row;
+         colNr = col;
+         wordNr = (colNr + 63) / 64;
+         cells = new int[rowNr][colNr];
+         rowBits = new long[rowNr*wordNr];
+         int rest = colNr - 64*(wordNr - 1);
+         lastWordFull = rest == 64 ? -1L : (1L << rest) - 1;
+         colTop = new int[colNr];
+         java.util.Arrays.fill(colTop, rowNr);
+         emptyRowStart = rowNr - 1;
+      }
+
+      public void placeBlocks(int[] blockPos, int blkColorIx)
+      {
+         for ( int ix = 0; ix < blockPos.length; ix += 2 ) {
+            int c = blockPos[ix];
+            int r = blockPos[ix + 1];
+            cells[r][c] = blkColorIx;
+            rowBits[r*wordNr + (c >> 6)] |= 1L << c;
+            hash ^= GameBoard.cellKey(c, r);
+            if ( r < colTop[c] ) colTop[c] = r;
+            if ( r <= emptyRowStart ) emptyRowStart = r - 1;
+         }
+      }
+
+      public int clearFullRows()
+      {
+         int removed = 0;
+         for ( int r = rowNr - 1; r > emptyRowStart; --r ) {
+            if ( isFullRow(r) ) {
+               deleteRow(r);
+               // stay at this row
+               r++;
+               removed++;
+            }
+         }
+         emptyRowStart += removed;
+         if ( removed > 0 ) {
+            for ( int c = 0; c < colNr; ++c ) {
+               int top = colTop[c] + removed;
+               while ( top < rowNr && cells[top][c] == 0 ) top++;
+               colTop[c] = top;
+            }
+         }
+         return removed;
+      }
+
+      public long getFootprint()
+      {
+         return 16 + 4L*rowNr + rowNr*(16 + 4L*colNr) + 16 + 8L*rowBits.length + 16 + 4L*colNr;
+      }
+
+      /*
+       * @return boolean: true if all cells of row r are occupied
+       */
+      private boolean isFullRow(int r)
+      {
+         int first = r*wordNr;
+         int last = first + wordNr - 1;
+         for ( int w = first; w < last; ++w ) {
+            if ( rowBits[w] != -1L ) return false;
+         }
+         return rowBits[last] == lastWordFull;
+      }
+
+      /*
+       * remove row: the rows above it drop down one row
+       */
+      private void deleteRow(int row)
+      {
+         for ( int c = 0; c < colNr; ++c ) hash ^= GameBoard.cellKey(c, row);
+
+         int top = Math.max(emptyRowStart, 0);
+         for ( int r = row - 1; r >= top; --r ) {
+            for ( int c = 0; c < colNr; ++c ) {
+               if ( cells[r][c] != 0 ) hash ^= GameBoard.cellKey(c, r) ^ GameBoard.cellKey(c, r + 1);
+               cells[r + 1][c] = cells[r][c];
+            }
+         }
+         System.arraycopy(rowBits, top*wordNr, rowBits, (top + 1)*wordNr, (row - top)*wordNr);
+         // the top row of the stack is empty now
+         java.util.Arrays.fill(cells[top], 0);
+         java.util.Arrays.fill(rowBits, top*wordNr, (top + 1)*wordNr, 0L);
+      }
+   }
+
+} // end of class BoardScaling
@@ -0,0 +1,108 @@
+/**
+ * An immutable picture of a game, published by the game loop thread for the
+ * rendering on the AWT event thread.
+ *
+ * The game loop is the only thread changing the GameEngine. After every change
+ * it takes a snapshot (GameEngine.snapshot) and publishes it through a volatile
+ * reference; paint only reads the last published snapshot, never the engine.
+ *
+ * A snapshot holds
+ *   - a copy of the colors of the game board cells; the copy is shared with
+ *     the previous snapshot if the board has not changed since
+ *   - copies of the active and the stand-by tetrads, and of the preview (the
+ *     tetrads after the stand-by one); shared with the previous snapshot if
+ *     no tetrad has been drawn since
+ *   - the destination positions of the active tetrad (ghost)
+ *   - the scores, level, time played and the status of the game
+ * None of them is modified after the snapshot is taken.
+ */
+
+public class BoardSnapshot
+{
+   final int[][] cells;
+   // the version of the game board the cells were copied from
+   final long boardVersion;
+
+   final Tetrad currTetrad;
+   final Tetrad nextTetrad;
+   // the tetrads coming after the stand-by tetrad, in order
+   final Tetrad[] preview;
+   // the preview version of the engine the tetrads were copied at
+   final long previewVersion;
+   // the destination positions of the active tetrad, null if none
+   final int[] ghostPos;
+
+   final long scores;
+   final int  level;
+   final long timePlayed;
+
+   final boolean gameStarted;
+   final boolean gamePaused;
+   final boolean gameOver;
+
+   /*
+    * created by GameEngine.snapshot only
+    */
+   BoardSnapshot(int[][] cls, long version, Tetrad curr, Tetrad next,
+                 Tetrad[] prv, long prvVersion, int[] ghost,
+                 long sc, int lv, long time, boolean started, boolean paused, boolean over)
+   {
+      cells = cls;
+      boardVersion = version;
+      currTetrad = curr;
+      nextTetrad = next;
+      preview = prv;
+      previewVersion = prvVersion;
+      ghostPos = ghost;
+      scores = sc;
+      level = lv;
+      timePlayed = time;
+      gameStarted = started;
+      gamePaused = paused;
+      gameOver = over;
+   }
+
+   /**
+    * @return int[][]: the colors of the game board cells (do not modify)
+    */
+   public int[][] getCells() {  return cells;  }
+
+   /**
+    * @return Tetrad: the active tetrad, null if none (do not modify)
+    */
+   public Tetrad getCurrTetrad() {  return currTetrad;  }
+
+   /**
+    * @return Tetrad: the stand-by tetrad, null if none (do not modify)
+    */
+   public Tetrad getNextTetrad() {  return nextTetrad;  }
+
+   /**
+    * @return int: the number of tetrads in the preview (after the stand-by tetrad)
+    */
+   public int getPreviewNr() {  return preview.length;  }
+
+   /**
+    * @param int: 0 - the first tetrad after the stand-by tetrad, 1 the second, ...
+    * @return Tetrad: the tetrad coming at that place (do not modify)
+    */
+   public Tetrad getPreviewTetrad(int ix) {  return preview[ix];  }
+
+   /**
+    * @return int[]: the destination positions of the active tetrad
+    *                {c0, r0, ..., c3, r3}, null if none (do not modify)
+    */
+   public int[] getGhostPos() {  return ghostPos;  }
+
+   public long getScores() {  return scores;  }
+   public int getLevel() {  return level;  }
+   /**
+    * @return long: how long (in millisecond) the game is in-progess
+    */
+   public long getTimePlayed() {  return timePlayed;  }
+
+   public boolean gameStarted() {  return gameStarted;  }
+   public boolean gamePaused() {  return gamePaused;  }
+   public boolean gameOver() {  return gameOver;  }
+
+} // end of class BoardSnapshot
@@ -0,0 +1,112 @@
+/**
+ * Class CellSpriteCache keeps pre-rendered images of the grid cells.
+ *
+ * Drawing a cell the plain way takes four calls (setColor, fillRect, setColor,
+ * drawRect) and switches the Graphics2D state twice. With the cache a cell is
+ * a single drawImage of its sprite.
+ *
+ * There is one sprite for every combination of
+ *   - color index (the colors and lightColors arrays of ColorServer)
+ *   - lightness (normal or light colors)
+ *   - line style: GRID_LINE - the grid line color (of the same lightness)
+ *                 MOTION_LINE - the in-motion line color (active tetrad)
+ * at the current cell size and line stroke. The sprites are created when first
+ * needed, as images compatible with the Graphics drawn on, and dropped when
+ * the cell size or the stroke changes.
+ *
+ * A sprite is larger than the cell: the grid line is centered on the cell edge
+ * and reaches into the neighbour cells. The sprite is transparent outside the
+ * cell and its line; it is drawn at (cell x - margin, cell y - margin).
+ */
+
+import java.awt.*;
+import java.awt.image.*;
+
+class CellSpriteCache
+{
+   /*
+    * the line styles
+    */
+   static final int GRID_LINE = 0;
+   static final int MOTION_LINE = 1;
+
+   // sprites[lineStyle][light ? 1 : 0][colorIx], null until first needed
+   private Image[][][] sprites = new Image[2][2][ColorServer.getColorNr()];
+
+   // the cell size and stroke of the sprites
+   private int cellSize = -1;
+   private BasicStroke stroke = null;
+   // the distance from the sprite edge to the cell edge
+   private int margin = 0;
+
+   /**
+    * Called before drawing: drop the sprites if the cell size or the stroke changed
+    * @param int - the side length of the square cells
+    * @param BasicStroke - the grid line stroke
+    */
+   void validate(int size, BasicStroke k)
+   {
+      if ( size != cellSize || !k.equals(stroke) ) {
+         sprites = new Image[2][2][ColorServer.getColorNr()];
+         cellSize = size;
+         stroke = k;
+         margin = (int)Math.ceil( k.getLineWidth()/2 ) + 1;
+      }
+   }
+
+   /**
+    * pre-condition: validate called with the current cell size and stroke
+    * @param Graphics2D - where the sprite will be drawn
+    * @param int - the color index of the cell
+    * @param boolean - true: light colors; false: normal colors
+    * @param int - GRID_LINE or MOTION_LINE
+    * @return Image - the sprite of the cell, to be drawn at margin() pixels
+    *                 up and left of the cell
+    */
+   Image getSprite(Graphics2D g, int colorIx, boolean lightColor, int lineStyle)
+   {
+      int lx = lightColor ? 1 : 0;
+      Image sprite = sprites[lineStyle][lx][colorIx];
+      if ( sprite == null ) {
+         sprite = createSprite(g.getDeviceConfiguration(), colorIx, lightColor, lineStyle);
+         sprites[lineStyle][lx][colorIx] = sprite;
+      }
+      return sprite;
+   }
+
+   /**
+    * @return int: the distance from the sprite edge to the cell edge
+    */
+   int margin() {  return margin;  }
+
+   /*
+    * render a sprite: the cell filled with its color and lined
+    */
+   private Image createSprite(GraphicsConfiguration config, int colorIx, boolean lightColor, int lineStyle)
+   {
+      int side = cellSize + 2*margin;
+      Image sprite;
+      if ( config != null ) {
+         sprite = config.createCompatibleImage(side, side, Transparency.BITMASK);
+      } else {
+         sprite = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+      }
+
+      Graphics2D g = (Graphics2D)sprite.getGraphics();
+      g.setComposite(AlphaComposite.Clear);
+      g.fillRect(0, 0, side, side);
+      g.setComposite(AlphaComposite.SrcOver);
+
+      Color lineColor = ( lineStyle == MOTION_LINE ) ? ColorServer.getMotionLineColor()
+                                                     : ColorServer.getGridLineColor(lightColor);
+      g.setStroke(stroke);
+      g.setColor( ColorServer.getCellColor(colorIx, lightColor) );
+      g.fillRect( margin, margin, cellSize, cellSize );
+      g.setColor( lineColor );
+      g.drawRect( margin, margin, cellSize, cellSize );
+      g.dispose();
+
+      return sprite;
+   }
+
+} // end of class CellSpriteCache
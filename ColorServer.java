@@ -31,7 +31,11 @@ import java.awt.*;
 
 class ColorServer
 {
-   private static Random rand = new Random();
+   /*
+    * the number of colors for tetrads (colors.length - 1, index 0 is for empty cells)
+    * A constant, so the tetrad sources can use it without loading the Colors
+    */
+   public static final int TETRAD_COLOR_NR = 11;
 
    /*
     * - use colors or light colors for different scenarios
@@ -95,6 +99,14 @@ class ColorServer
       return colors[ix];
    }
 
+   /**
+    * @return int: the number of cell colors (valid indexes are 0 to number - 1)
+    */
+   public static int getColorNr()
+   {
+      return colors.length;
+   }
+
    /**
     * @param boolean: ture -  lightGridLineColor; fasle - gridLineColor
     * @return Color: the color of the grid lines
@@ -114,15 +126,6 @@ class ColorServer
        return Color.WHITE;
    }
 
-   /**
-    * @return int > 0: randomly generate a valid color index for a tetard
-    */
-   public static int colorIxForTetrad()
-   {
-      // index 0 is for empty cell
-      return 1 + rand.nextInt(colors.length - 1);
-   }
-
    /**
     * @param Tatras: the tetard asking its Color
     * @param boolean: true from lightColors; false - from the colors array
@@ -0,0 +1,92 @@
+/**
+ * A bounded lock-free multi-producer single-consumer queue of commands
+ * (int codes, see GameEngine.CMD_*).
+ *
+ * The player instructions are produced on the AWT event thread (and possibly
+ * other threads, e.g. a bot) and consumed by the game loop thread, which is
+ * the only thread changing the game. The commands are applied in the order
+ * they were offered.
+ *
+ * The queue is a ring of slots, each with a sequence number:
+ *   - a producer claims the slot at the tail with a compare-and-set on the
+ *     tail counter, writes the command, then publishes the slot by setting
+ *     its sequence to tail + 1
+ *   - the consumer takes the slot at the head once its sequence shows it is
+ *     published, then frees it for the next round by setting the sequence
+ *     to head + capacity
+ * No locks, no allocation after construction.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class CommandQueue
+{
+   /**
+    * returned by poll() if the queue is empty
+    */
+   public static final int EMPTY = -1;
+
+   private final int[] commands;
+   private final AtomicLongArray sequences;
+   private final int mask;
+
+   // next slot to claim by a producer
+   private final AtomicLong tail = new AtomicLong();
+   // next slot to take by the consumer (consumer thread only)
+   private long head = 0;
+
+   /**
+    * @param int - the capacity, rounded up to a power of two
+    */
+   public CommandQueue(int capacity)
+   {
+      int size = Integer.highestOneBit( Math.max(2, capacity - 1) ) << 1;
+      commands = new int[size];
+      sequences = new AtomicLongArray(size);
+      for ( int ix = 0; ix < size; ++ix ) sequences.set(ix, ix);
+      mask = size - 1;
+   }
+
+   /**
+    * Add a command at the tail, called by any thread
+    * @param int - the command, >= 0
+    * @return boolean: false if the queue is full (command dropped)
+    */
+   public boolean offer(int command)
+   {
+      while ( true ) {
+         long t = tail.get();
+         int slot = (int)t & mask;
+         long seq = sequences.get(slot);
+         if ( seq == t ) {
+            if ( tail.compareAndSet(t, t + 1) ) {
+               commands[slot] = command;
+               // publish: the write of the command happens-before this
+               sequences.set(slot, t + 1);
+               return true;
+            }
+         } else if ( seq < t ) {
+            // the slot is not freed by the consumer yet - full
+            return false;
+         }
+         // else another producer claimed the slot - try again
+      }
+   }
+
+   /**
+    * Take the command at the head, called by the consumer thread only
+    * @return int: the command, EMPTY if there is none
+    */
+   public int poll()
+   {
+      int slot = (int)head & mask;
+      if ( sequences.get(slot) != head + 1 ) return EMPTY;
+
+      int command = commands[slot];
+      sequences.lazySet(slot, head + commands.length);
+      head++;
+      return command;
+   }
+
+} // end of class CommandQueue
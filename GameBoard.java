@@ -5,11 +5,11 @@
  * On the gameboard, however, tetrads can move and will be fixed on the grid when touched
  * the ground and thus change the color of the cells.
  *
- * The GameBoard has a reference to its owner Tetris such that the game board can
- * access the game status in determing the Color style (light or normal) for the
- * grid board and the tetrads
+ * The GameBoard does not know its owner GameEngine: it is displayed from a
+ * snapshot of the game (BoardSnapshot), which tells the Color style (light or
+ * normal) for the grid board and the tetrads
  *
- * GameBoard provides some additional utility methods to allow the tetris to
+ * GameBoard provides some additional utility methods to allow the engine to
  *  - check a tetrad movement action (shift, rotate, drop down) is feasible
  *  - fix the active tetrad on the board after it touch the ground
  *  - find out how many full rows are there
@@ -19,9 +19,66 @@
  * GameBoard define an extra private attirbute emptyRowStart to track the first
  * row index at which and above all the cells are empty. This helps up speed up,
  * for eample, in checking how many full rows are there in the game board
+ *
+ * The rows of the board are kept in a ring of row references: row r (0 the
+ * top row) is in the slot (base + r) of the ring, modulo its size - a power
+ * of two, at least rowNr. The colors of a row are in the cellArray (inherited
+ * from GridBoard, the color plane) at its slot:
+ *   - all empty rows share one array, never written; a row gets its own
+ *     array when the first block is placed on it. The color plane takes
+ *     memory for the occupied rows only - a board of thousands of rows and
+ *     hundreds of colums costs little while its stack is low
+ *   - the full rows are unlinked from the ring: they are found first, then
+ *     the rows on one side of them move by reference in one pass, each to
+ *     its new slot (the side with fewer rows - the rows above them down, or
+ *     the rows below them up and the ring turns back), no cell is copied
+ *
+ * Besides the color plane, the game board keeps a bitboard: the occupancy of
+ * every row as a bit mask, one bit per colum (bit c is set if the cell at
+ * colum c is occupied), by slot like the colors.
+ *   - a block collision check is one AND of the row mask with the block bit
+ * All feasibility checks and the full row clearing work on the bitboard only,
+ * the color plane is touched only when blocks are placed or rows are removed.
+ *
+ * Every row has a fill counter (its occupied cells), counted up when blocks
+ * are placed and moved with the row. A row placing a block makes full is
+ * noted then, so clearFullRows knows the full rows without looking for
+ * them - the rows the tetrad touched were the only ones to check, whatever
+ * the width and the height of the stack.
+ *
+ * The game board also keeps the surface of every colum (the row index of its
+ * highest occupied cell), updated when blocks are placed and rows are cleared.
+ * It answers the drop distance of a tetrad (ghost position, hard drop) in
+ * constant time unless a block is under an overhang.
+ *
+ * The occupancy of the board has a Zobrist hash: the XOR of a random key per
+ * occupied cell (the key of a cell depends on its colum and row only, so
+ * boards of the same size with the same cells occupied have the same hash).
+ * It is updated with the cells: the keys of placed blocks XORed in, the keys
+ * of a removed row XORed out and the rows dropping down XORed from their old
+ * to their new row. A bot's search finds the boards it has seen already -
+ * reached by placements in another order - by the hash (TranspositionTable).
+ * The key of the cell (c, r) is the random key of colum c rotated left by r
+ * bits, so the keys of rows dropping one row down are their old keys rotated
+ * by one: the rows above a removed row move in the hash with one rotation of
+ * their XOR (the keys repeat every 64 rows - cells 64 rows apart hash alike).
+ *
+ * The cost of a board of rowNr x colNr with a stack h rows high (the output
+ * of BoardScaling: a gap in every row of the stack, the bottom or the middle
+ * row of the stack filled and cleared, clearFullRows timed):
+ *       board        h   memory (KB)      clear bottom (us)  clear middle (us)
+ *                        dense   ring      dense    ring      dense    ring
+ *      23 x  16     12       2      2        2.2    0.3        1.4    0.7
+ *    1000 x 100    100     426     89       48.4    0.5       29.4    2.4
+ *    5000 x 200    500    4160   1040      575.6    0.8      282.0    7.1
+ *   20000 x 500   2000   40705   8549     6478.0    1.8     2988.4   28.2
+ * (dense: BoardScaling.DenseBoard - all rows allocated, the cells above a
+ * removed row copied one by one and rehashed; ring: this board - the rest
+ * of its memory is the bitboard, two bits per cell of the ring)
  */
 
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.awt.*;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -30,28 +87,89 @@ import java.awt.RenderingHints;
 
 public class GameBoard extends GridBoard
 {
-   // the owner  ...
-   private Tetris tetris = null;
    /*
     * to speed-up: cells at and above this row are all empty
     */
    private int emptyRowStart;
 
+   /*
+    * the ring: row r is in the slot (base + r) & ringMask, the slots not
+    * holding a row (ring size - rowNr of them) are kept empty
+    */
+   private int base = 0;
+   private int ringMask;
+   // the colors of all empty rows - never written
+   private int[] emptyRow;
+   // by slot: the number of occupied cells of the row
+   private int[] rowFill;
+   // the rows made full by placed blocks, not cleared yet (fullNr of them)
+   private int[] fullRows = new int[4];
+   private int fullNr = 0;
+
+   /*
+    * the bitboard - occupancy masks of the rows, by slot
+    *   wordNr longs per row (one long for boards up to 64 colums),
+    *   the masks of the row in slot s start at rowBits[s*wordNr] and again
+    *   at rowBits[mirror + s*wordNr]: row r starts at (base + r)*wordNr, the
+    *   checks find a row without wrapping around the ring
+    */
+   private long[] rowBits;
+   private int mirror;
+   private int wordNr;
+
+   /*
+    * the surface: colTop[c] - row index of the highest occupied cell in
+    * colum c, rowNr if the colum is empty
+    */
+   private int[] colTop;
+
    /**
-    * The constructor
-    * @param Tetris - the owner
+    * the rows the hash tells apart: the key of a cell is the key of its
+    * colum rotated by the row, so the keys repeat every 64 rows
+    */
+   public static final int HASHED_ROW_NR = 64;
+
+   // the Zobrist hash of the occupancy: the XOR of the keys of the occupied cells
+   private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+   private long hash = 0;
+   // by slot: the XOR of the colum keys of the occupied cells of the row
+   private long[] rowKeys;
+
+   // incremented whenever a cell changed - snapshots copy the cells only then
+   private long version = 0;
+   /*
+    * the rows changed since the last copyCells: [dirtyTop, dirtyBottom],
+    * empty if dirtyTop > dirtyBottom. Only those rows are copied again.
+    */
+   private int dirtyTop;
+   private int dirtyBottom;
+
+   /**
+    * The constructor. The position on the panel and the cell size are
+    * set by the tetris (setGeometry) once the panel size is known
     * @param int r - row number of the grid (r > 0)
     * @param int c - colum number of the grid (c > 0)
-    * @param int x - the left position of the grid in the tetris panel
-    * @param int t - the top position of the grid in the tetris panel
-    * @param int s - the side length of the square grid cells
-    * @param BasicStroke - the thickness of the gridline of the gameboard
     */
-   public GameBoard(Tetris t, int r, int c, int x, int y, int s, BasicStroke k)
+   public GameBoard(int r, int c)
    {
-      super(r, c, x, y, s, k);
-      tetris = t;
+      super(r, c, 0, 0, 0, null, new int[Integer.highestOneBit( Math.max(1, r - 1) ) << 1][]);
       emptyRowStart = r - 1;
+
+      ringMask = cellArray.length - 1;
+      emptyRow = new int[c];
+      Arrays.fill(emptyRow, empty);
+      Arrays.fill(cellArray, emptyRow);
+
+      wordNr = (c + 63) >>> 6;
+      mirror = cellArray.length*wordNr;
+      rowBits = new long[2*mirror];
+      rowKeys = new long[cellArray.length];
+      rowFill = new int[cellArray.length];
+
+      colTop = new int[c];
+      Arrays.fill(colTop, r);
+      dirtyTop = 0;
+      dirtyBottom = r - 1;
    }
 
    /**
@@ -60,12 +178,327 @@ public class GameBoard extends GridBoard
     */
    public void reset()
    {
-      for ( int iy = 0; iy < rowNr; iy++ ) {
-         for ( int ix = 0; ix < colNr; ix++ ) {
-            cellArray[iy][ix] = empty;
+      Arrays.fill(cellArray, emptyRow);
+      base = 0;
+      Arrays.fill(rowBits, 0L);
+      Arrays.fill(rowKeys, 0L);
+      Arrays.fill(rowFill, 0);
+      fullNr = 0;
+      Arrays.fill(colTop, rowNr);
+      emptyRowStart = rowNr - 1;
+      hash = 0;
+      markDirty(0, rowNr - 1);
+      version++;
+   }
+
+   /**
+    * Set the cells of the board to the given colors, e.g. the cells of a
+    * snapshot, for a board used for analysis (a bot's copy of the game)
+    * @param int[][] - the color indexes of the cells, rowNr x colNr (not kept)
+    */
+   public void loadCells(int[][] cells)
+   {
+      for ( int r = 0; r < rowNr; r++ ) {
+         boolean occupied = false;
+         for ( int c = 0; c < colNr && !occupied; c++ ) occupied = cells[r][c] != empty;
+         if ( occupied ) {
+            System.arraycopy(cells[r], 0, ownRow(r), 0, colNr);
+         } else {
+            cellArray[slot(r)] = emptyRow;
          }
       }
-      emptyRowStart = rowNr - 1;
+      rebuild();
+      emptyRowStart = highestRow() - 1;
+   }
+
+   /**
+    * Save the cells of the board, compactly:
+    *   - emptyRowStart + 1 (a varint)
+    *   - then from the top row down: the number of empty rows before the
+    *     next occupied row (a varint), and that row - the color indexes
+    *     packed in nibbles, two cells per byte (the colors are < 16)
+    *   - the count of the empty rows at the bottom ends the board
+    * An empty board takes 2 bytes, a row with blocks colNr/2 bytes.
+    * @param ByteBuffer - where to put the cells
+    */
+   public void saveCells(ByteBuffer out)
+   {
+      putVarint(out, emptyRowStart + 1);
+      int r = 0;
+      while ( r < rowNr ) {
+         int empties = 0;
+         while ( r < rowNr && getRowFill(r) == 0 ) {
+            empties++;
+            r++;
+         }
+         putVarint(out, empties);
+         if ( r == rowNr ) break;
+         int[] row = cellArray[slot(r++)];
+         for ( int c = 0; c < colNr; c += 2 ) {
+            int high = ( c + 1 < colNr ) ? row[c + 1] : empty;
+            out.put( (byte)(row[c] | (high << 4)) );
+         }
+      }
+   }
+
+   /**
+    * Restore the cells saved by saveCells (of a board of the same size)
+    * @param ByteBuffer - the cells saved
+    */
+   public void restoreCells(ByteBuffer in)
+   {
+      int emptyStart = checkRange( getVarint(in) - 1, -1, rowNr - 1, "empty row start" );
+      int colorNr = ColorServer.getColorNr();
+      int r = 0;
+      while ( r < rowNr ) {
+         int empties = checkRange( getVarint(in), 0, rowNr - r, "empty rows" );
+         for ( ; empties > 0; empties-- ) {
+            cellArray[slot(r++)] = emptyRow;
+         }
+         if ( r == rowNr ) break;
+         int[] row = ownRow(r++);
+         for ( int c = 0; c < colNr; c += 2 ) {
+            int b = in.get() & 0xFF;
+            row[c] = checkRange( b & 0xF, 0, colorNr - 1, "cell color" );
+            if ( c + 1 < colNr ) row[c + 1] = checkRange( b >>> 4, 0, colorNr - 1, "cell color" );
+         }
+      }
+      rebuild();
+      emptyRowStart = emptyStart;
+   }
+
+   /*
+    * the bitboard, the surface and the hash from the colors of the cells
+    */
+   private void rebuild()
+   {
+      Arrays.fill(rowBits, 0L);
+      Arrays.fill(rowKeys, 0L);
+      Arrays.fill(rowFill, 0);
+      fullNr = 0;
+      Arrays.fill(colTop, rowNr);
+      hash = 0;
+      for ( int r = rowNr - 1; r >= 0; r-- ) {
+         int s = slot(r);
+         int[] row = cellArray[s];
+         for ( int c = 0; c < colNr; c++ ) {
+            if ( row[c] != empty ) {
+               rowBits[s*wordNr + (c >>> 6)] |= 1L << c;
+               rowKeys[s] ^= colKey(c);
+               rowFill[s]++;
+               colTop[c] = r;
+            }
+         }
+         if ( rowFill[s] == colNr ) addFullRow(r);
+         hash ^= Long.rotateLeft(rowKeys[s], r);
+      }
+      System.arraycopy(rowBits, 0, rowBits, mirror, mirror);
+      markDirty(0, rowNr - 1);
+      version++;
+   }
+
+   /*
+    * @return int: the slot of the ring keeping row r
+    */
+   private int slot(int r) {  return (base + r) & ringMask;  }
+
+   /*
+    * @return int: the index of the first mask of row r in the rowBits
+    */
+   private int bitsOf(int r) {  return (base + r)*wordNr;  }
+
+   /*
+    * @return int[]: the colors of row r to write to - the row gets its own
+    *                array if it shares the empty row
+    */
+   private int[] ownRow(int r)
+   {
+      int s = slot(r);
+      if ( cellArray[s] == emptyRow ) cellArray[s] = new int[colNr];
+      return cellArray[s];
+   }
+
+   /*
+    * the row in slot from moves to slot to (its reference, masks and keys)
+    */
+   private void moveSlot(int from, int to)
+   {
+      cellArray[to] = cellArray[from];
+      System.arraycopy(rowBits, from*wordNr, rowBits, to*wordNr, wordNr);
+      System.arraycopy(rowBits, from*wordNr, rowBits, mirror + to*wordNr, wordNr);
+      rowKeys[to] = rowKeys[from];
+      rowFill[to] = rowFill[from];
+   }
+
+   /*
+    * the slot s holds an empty row
+    */
+   private void clearSlot(int s)
+   {
+      cellArray[s] = emptyRow;
+      Arrays.fill(rowBits, s*wordNr, (s + 1)*wordNr, 0L);
+      Arrays.fill(rowBits, mirror + s*wordNr, mirror + (s + 1)*wordNr, 0L);
+      rowKeys[s] = 0;
+      rowFill[s] = 0;
+   }
+
+   /**
+    * @return long: the memory used by the cells of the board (the color
+    *               plane, the bitboard, the surface), in bytes - estimated
+    *               with 16 bytes per array header and 4 per reference
+    */
+   public long getFootprint()
+   {
+      long bytes = 16 + 4L*cellArray.length + 16 + 4L*colNr;
+      for ( int[] row : cellArray ) {
+         if ( row != emptyRow ) bytes += 16 + 4L*colNr;
+      }
+      return bytes + 16 + 8L*rowBits.length + 16 + 8L*rowKeys.length + 16 + 4L*rowFill.length
+             + 16 + 4L*colTop.length;
+   }
+
+   /*
+    * @return int: the highest row with an occupied cell, rowNr if none
+    */
+   private int highestRow()
+   {
+      int top = rowNr;
+      for ( int c = 0; c < colNr; c++ ) top = Math.min(top, colTop[c]);
+      return top;
+   }
+
+   static void putVarint(ByteBuffer out, int value)
+   {
+      while ( (value & ~0x7F) != 0 ) {
+         out.put( (byte)((value & 0x7F) | 0x80) );
+         value >>>= 7;
+      }
+      out.put( (byte)value );
+   }
+
+   static int getVarint(ByteBuffer in)
+   {
+      int value = 0;
+      for ( int shift = 0; ; shift += 7 ) {
+         byte b = in.get();
+         value |= (b & 0x7F) << shift;
+         if ( b >= 0 ) return value;
+      }
+   }
+
+   /*
+    * a value read from saved bytes, checked
+    * @return int: the value, if min <= value <= max
+    * @throws IllegalArgumentException - if it is out of the range (damaged bytes)
+    */
+   static int checkRange(int value, int min, int max, String what)
+   {
+      if ( value < min || value > max )
+         throw new IllegalArgumentException(what + " " + value + " not in [" + min + ", " + max + "]");
+      return value;
+   }
+
+   /**
+    * Set the cells of the board to the cells of another board of the same
+    * size, e.g. to try placements on a copy of a board
+    * @param GameBoard - the board to copy, rowNr x colNr
+    */
+   public void copyFrom(GameBoard other)
+   {
+      base = other.base;
+      for ( int s = 0; s < cellArray.length; s++ ) {
+         if ( other.cellArray[s] == other.emptyRow ) {
+            cellArray[s] = emptyRow;
+         } else {
+            if ( cellArray[s] == emptyRow ) cellArray[s] = new int[colNr];
+            System.arraycopy(other.cellArray[s], 0, cellArray[s], 0, colNr);
+         }
+      }
+      System.arraycopy(other.rowBits, 0, rowBits, 0, rowBits.length);
+      System.arraycopy(other.rowKeys, 0, rowKeys, 0, rowKeys.length);
+      System.arraycopy(other.rowFill, 0, rowFill, 0, rowFill.length);
+      if ( fullRows.length < other.fullNr ) fullRows = new int[other.fullRows.length];
+      System.arraycopy(other.fullRows, 0, fullRows, 0, other.fullNr);
+      fullNr = other.fullNr;
+      System.arraycopy(other.colTop, 0, colTop, 0, colNr);
+      emptyRowStart = other.emptyRowStart;
+      hash = other.hash;
+      markDirty(0, rowNr - 1);
+      version++;
+   }
+
+   /**
+    * @param int: the colum, 0 <= c < colNr
+    * @return int: the row index of the highest occupied cell of the colum,
+    *              rowNr if the colum is empty
+    */
+   public int getColumnTop(int c) {  return colTop[c];  }
+
+   /**
+    * @return long: the Zobrist hash of the occupancy of the board - on a
+    *               board of more than HASHED_ROW_NR rows two rows 64 apart
+    *               have the same keys, boards differing so hash the same
+    */
+   public long getHash() {  return hash;  }
+
+   /**
+    * The Zobrist key of a cell - the same for every board
+    * @param int: the colum
+    * @param int: the row
+    * @return long: the key XORed into the hash when the cell is occupied
+    */
+   public static long cellKey(int c, int r)
+   {
+      return Long.rotateLeft( colKey(c), r );
+   }
+
+   /*
+    * the random key of a colum - the key of its cell in row 0
+    */
+   private static long colKey(int c)
+   {
+      return SplitMix64.mix64( ZOBRIST_SEED + (c + 1)*0x9E3779B97F4A7C15L );
+   }
+
+   /**
+    * @param int[]: the positions of tetrad blocks {c0, r0, ..., c3, r3}
+    * @return long: the XOR of the keys of the block cells - the hash of the
+    *               board with the blocks placed is getHash() ^ blocksHash(..)
+    *               (before full rows are removed)
+    */
+   public static long blocksHash(int[] blockPos)
+   {
+      return cellKey(blockPos[0], blockPos[1]) ^ cellKey(blockPos[2], blockPos[3])
+             ^ cellKey(blockPos[4], blockPos[5]) ^ cellKey(blockPos[6], blockPos[7]);
+   }
+
+   /**
+    * @param int: the row, 0 <= r < rowNr
+    * @return int: the number of occupied cells on the row
+    */
+   public int getRowFill(int r) {  return rowFill[slot(r)];  }
+
+   /**
+    * @return boolean: true if the cell (c, r) is occupied - one AND on the bitboard
+    *  pre-condition: (c, r) is a valid position in the grid
+    */
+   boolean isOccupied(int c, int r)
+   {
+      return ( rowBits[bitsOf(r) + (c >>> 6)] & (1L << c) ) != 0;
+   }
+
+   /**
+    * display the board with the colors of its cells (in the order of the rows,
+    * not of the slots of the ring)
+    *
+    * @param Graphics2D - where to dispaly
+    * @param boolean: true - use light colors; false - use normal colors
+    */
+   public void displayBoard(Graphics2D g, boolean lightColor)
+   {
+      int[][] rows = new int[rowNr][];
+      for ( int r = 0; r < rowNr; r++ ) rows[r] = cellArray[slot(r)];
+      displayBoard(g, rows, lightColor);
    }
 
    /**
@@ -75,101 +508,143 @@ public class GameBoard extends GridBoard
     *  - show the destination position if the active tetrad touch the ground from
     *    its current position
     *
+    * Everything shown is taken from the snapshot (published by the game loop
+    * thread); the live state of the board is not read, only its geometry.
+    *
     *  @param Graphics: where to paint
-    *  @param Tetrad: the tetrad currently moving on the game board
-    *  @param boolean lighColor: true - light colors for the game board and tetrad block
-    *  @param boolean inMotion: true - show the activeTetrad as in-motion
+    *  @param BoardSnapshot: the state of the game to show
     */
-   public void display(Graphics gr, Tetrad activeTetrad)
+   public void display(Graphics gr, BoardSnapshot snapshot)
    {
       Graphics2D g = (Graphics2D)gr;
+      Tetrad activeTetrad = snapshot.currTetrad;
       /*
        * the Color of each cells on the game board - call the inherited method
        */
       boolean lightColor = false;
 	  boolean inMotion = true;
-      if ( !tetris.gameStarted() || tetris.gamePaused() || tetris.gameOver() ) {
+      if ( !snapshot.gameStarted || snapshot.gamePaused || snapshot.gameOver ) {
          inMotion = false;
          lightColor = true;
       }
-      displayBoard(g, lightColor);
+      displayBoard(g, snapshot.cells, lightColor);
 
       if ( activeTetrad != null ) {
          /*
           * the current tetrad position on the board - call the inherited method
           */
-         if ( tetris.gameOver() ) {
+         if ( snapshot.gameOver ) {
             /*
              * this tetrad made the game over
              * display some blocks that are valid on the board
              */
-            ArrayList<Point> blkArray = getFeasibleBlockPosByLifting( activeTetrad.getBlockPos(0) );
+            ArrayList<Point> blkArray = getFeasibleBlockPosByLifting( snapshot.cells,
+                                                                      activeTetrad.getBlockPos(0) );
             if ( blkArray != null ) {
-               Color cellColor = ColorServer.getTetradColor(activeTetrad, lightColor);
-               Color lineColor = ColorServer.getGridLineColor(lightColor);
-               g.setStroke(lineStroke);
+               sprites.validate(cellSize, lineStroke);
+               Image cell = sprites.getSprite( g, activeTetrad.getColorIx(), lightColor,
+                                               CellSpriteCache.GRID_LINE );
+               int margin = sprites.margin();
                for ( Point blk : blkArray ) {
-                  g.setColor(cellColor);
-                  g.fillRect(xPos + cellSize*blk.x, yPos + cellSize*blk.y, cellSize, cellSize);
-                  g.setColor(lineColor);
-                  g.drawRect(xPos + cellSize*blk.x, yPos + cellSize*blk.y, cellSize, cellSize);
+                  g.drawImage(cell, xPos + cellSize*blk.x - margin, yPos + cellSize*blk.y - margin, null);
                }
             }
             return;
          }
 
          // dsiplay the active tetrad
-         Point[] blkArray = displayTetrad(g, activeTetrad, lightColor, inMotion);
+         displayTetrad(g, activeTetrad, lightColor, inMotion);
          /*
           * the end position if the tetrad touches the ground - only draw lines
           */
-         if ( blkArray != null ) {
-            blkArray = getDestPos(blkArray);
-            if ( blkArray != null ) {
-               g.setStroke(lineStroke);
-               g.setColor( ColorServer.getTetradLineColor(activeTetrad) );
-               for ( Point blk : blkArray ) {
-                  g.drawRect(xPos + cellSize*blk.x, yPos + cellSize*blk.y, cellSize, cellSize);
-               }
+         int[] ghostPos = snapshot.ghostPos;
+         if ( ghostPos != null ) {
+            g.setStroke(lineStroke);
+            g.setColor( ColorServer.getTetradLineColor(activeTetrad) );
+            for ( int ix = 0; ix < 8; ix += 2 ) {
+               g.drawRect(xPos + cellSize*ghostPos[ix], yPos + cellSize*ghostPos[ix + 1],
+                          cellSize, cellSize);
             }
          }
       }
    }
 
    /**
-    * @param Point[]: the position array of a tetrad blocks in the gameboard
-    * @return boolean: false if some element of blockPos is out of
-    *                  the board, or in a cell already occupied
+    * @return long: the version of the board, changed whenever a cell changed
+    *               (blocks placed, rows cleared, reset)
+    */
+   public long getVersion() {  return version;  }
+
+   /**
+    * Copy the colors of the cells for a snapshot. The rows not changed since
+    * the previous copy are shared with it (the same int[] row), so a viewer
+    * finds the changed rows by comparing the row references. The empty rows
+    * share the board's empty row (not copied).
+    *
+    * @param int[][]: the previous copy (null if none)
+    * @return int[][]: a copy of the colors of the cells - never modified
+    */
+   public int[][] copyCells(int[][] previous)
+   {
+      int[][] cells = new int[rowNr][];
+      for ( int r = 0; r < rowNr; ++r ) {
+         int[] row = cellArray[slot(r)];
+         if ( row == emptyRow ) {
+            cells[r] = emptyRow;
+         } else if ( previous == null || (r >= dirtyTop && r <= dirtyBottom) ) {
+            cells[r] = row.clone();
+         } else {
+            cells[r] = previous[r];
+         }
+      }
+      dirtyTop = rowNr;
+      dirtyBottom = -1;
+      return cells;
+   }
+
+   /*
+    * the rows [top, bottom] have been changed
+    */
+   private void markDirty(int top, int bottom)
+   {
+      if ( top < dirtyTop ) dirtyTop = top;
+      if ( bottom > dirtyBottom ) dirtyBottom = bottom;
+   }
+
+   /**
+    * @param int[]: the position buffer of a tetrad blocks in the gameboard
+    *               {c0, r0, c1, r1, c2, r2, c3, r3} (see Tetrad.getBlockPos)
+    * @return boolean: false if some block is out of the board,
+    *                  or in a cell already occupied
     */
-   public boolean isValidAndEmpty(Point[] blockPos)
+   public boolean isValidAndEmpty(int[] blockPos)
    {
-      for (int ix = blockPos.length - 1; ix >= 0; --ix ) {
-         Point blkPos = blockPos[ix];
-         if ( blkPos.x < 0 || blkPos.x >= colNr ||
-              blkPos.y < 0 || blkPos.y >= rowNr )
+      for (int ix = 6; ix >= 0; ix -= 2 ) {
+         int c = blockPos[ix];
+         int r = blockPos[ix + 1];
+         if ( c < 0 || c >= colNr || r < 0 || r >= rowNr )
             return false;
 
-         if ( cellArray[blkPos.y][blkPos.x] != empty )
+         if ( isOccupied(c, r) )
             return false;
       }
       return true;
    }
 
    /**
-    * called by the owner tetris to check if a shift a tetrad right/left request is feasible
+    * called by the owner engine to check if a shift a tetrad right/left request is feasible
     * pre-condition: dir = 1 or -1
     *
-    * @param Point[]: the position array of a tetrad blocks in the gameboard
+    * @param int[]: the position buffer of a tetrad blocks in the gameboard
     * @param int:     -1 - shift left one colum; 1 - shift right one colum
     * @return boolean: false if the required shift will hit the boundary or
     *                  hit an occupied cell
     */
-   public boolean isValidShift(Point[] blockPos, int dir)
+   public boolean isValidShift(int[] blockPos, int dir)
    {
-      for (int ix = 0; ix < blockPos.length; ++ix ) {
-         Point blkPos = blockPos[ix];
-         if ( blkPos.x + dir < 0 || blkPos.x + dir >= colNr ||
-              cellArray[blkPos.y][blkPos.x + dir] != empty ) {
+      for (int ix = 0; ix < 8; ix += 2 ) {
+         int c = blockPos[ix] + dir;
+         if ( c < 0 || c >= colNr || isOccupied(c, blockPos[ix + 1]) ) {
             return false;
          }
       }
@@ -180,137 +655,231 @@ public class GameBoard extends GridBoard
     * check if it is feasible to drop a tetrad one row down:
     *       - not hit a fixed tetrad block
     *       - not get out of the grid
-    * @param Point[]: the tetrad block's current positions
+    * @param int[]: the tetrad block's current positions
     *
     * @return boolean: true - if feasible; false - not feasible
     */
-   public boolean isValidMoveDown(Point[] blockPos)
+   public boolean isValidMoveDown(int[] blockPos)
    {
-      for (int ix = blockPos.length - 1; ix >= 0; --ix ) {
-         Point blkPos = blockPos[ix];
-         if ( blkPos.y + 1 >= rowNr )
+      for (int ix = 6; ix >= 0; ix -= 2 ) {
+         int r = blockPos[ix + 1] + 1;
+         if ( r >= rowNr )
             return false;
 
-         if ( cellArray[blkPos.y + 1][blkPos.x] != empty )
+         if ( isOccupied(blockPos[ix], r) )
             return false;
       }
       return true;
    }
 
    /**
-    * Called by the owner tetris to dispaly the destination positions of
-    * the active tetrad
+    * How many rows the tetrad blocks can drop before touching the ground
+    *  - constant time from the colum surface for blocks above the surface
+    *  - a scan down the colum for a block under an overhang
     *
-    * @param Point[]: the positions of the blocks form the active tetrad
-    * @return Point[]: the positions the param blocks touch the ground
-    *                  (null if the param blocks already touched the ground)
+    * @param int[]: the positions of the blocks form the active tetrad
+    * @return int: the drop distance, 0 if the blocks already touched the ground
     */
-   public Point[] getDestPos(Point[] currBlockPos)
+   public int getDropDistance(int[] currBlockPos)
    {
-      int dropDistance = -1;
+      int dropDistance = rowNr;
 
-      for (Point blkPos : currBlockPos ) {
-         int dist = -1;
-         for ( int iy = blkPos.y + 1; iy < rowNr; iy++ ) {
-            if ( cellArray[iy][blkPos.x] != empty ) {
-               dist = (iy - 1) - blkPos.y;
-               break;
-            }
-         }
-         if ( dist < 0 ) {
-            dist = (rowNr - 1) - blkPos.y;
+      for (int ix = 0; ix < 8; ix += 2 ) {
+         int c = currBlockPos[ix];
+         int r = currBlockPos[ix + 1];
+         int ground = colTop[c];
+         if ( r >= ground ) {
+            // under an overhang - find the first occupied cell below
+            ground = r + 1;
+            while ( ground < rowNr && !isOccupied(c, ground) ) ground++;
          }
-
-         if ( dist <= 0 ) return null;
-         if ( dropDistance < 0 || dist < dropDistance )
+         int dist = (ground - 1) - r;
+         if ( dist < dropDistance ) {
             dropDistance = dist;
+            if ( dropDistance <= 0 ) return 0;
+         }
       }
+      return dropDistance;
+   }
 
+   /**
+    * Called by the owner engine to dispaly the destination positions of
+    * the active tetrad
+    *
+    * @param int[]: the positions of the blocks form the active tetrad
+    * @param int[]: the buffer to receive the positions the blocks touch the ground
+    * @return boolean: false if the param blocks already touched the ground
+    *                  (destBlockPos not written)
+    */
+   public boolean getDestPos(int[] currBlockPos, int[] destBlockPos)
+   {
+      int dropDistance = getDropDistance(currBlockPos);
       if ( dropDistance <= 0 )
-         return null;
+         return false;
 
-      Point[] blockDestArray = new Point[ currBlockPos.length ];
-      for ( int bx = 0; bx < currBlockPos.length; ++bx ) {
-         blockDestArray[bx] = new Point( currBlockPos[bx].x,
-                                         currBlockPos[bx].y + dropDistance );
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         destBlockPos[ix] = currBlockPos[ix];
+         destBlockPos[ix + 1] = currBlockPos[ix + 1] + dropDistance;
       }
-      return blockDestArray;
+      return true;
    }
 
    /**
-    * Called by the owner tetris to make the game board cells
-    * be occupied by the blocks in blockPos array (generated from
+    * Called by the owner engine to make the game board cells
+    * be occupied by the blocks in blockPos buffer (generated from
     * the active currTetrad that cannot drop further)
     * The cell int value changed to the color index of the tetrad
     *
-    * @param Point[]: the tetrad blocks
+    * @param int[]: the tetrad blocks
     * @param int: the color index of the tetrad
     */
-   public void placeBlocks(Point[] blockPos, int blkColorIx)
+   public void placeBlocks(int[] blockPos, int blkColorIx)
    {
-      for ( Point pos : blockPos ) {
-         if ( pos.y <= emptyRowStart ) {
-            emptyRowStart = pos.y - 1;
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         int c = blockPos[ix];
+         int r = blockPos[ix + 1];
+         if ( r <= emptyRowStart ) {
+            emptyRowStart = r - 1;
          }
-         cellArray[pos.y][pos.x] = blkColorIx;
+         int s = slot(r);
+         ownRow(r)[c] = blkColorIx;
+         rowBits[s*wordNr + (c >>> 6)] |= 1L << c;
+         rowBits[mirror + s*wordNr + (c >>> 6)] |= 1L << c;
+         long key = colKey(c);
+         rowKeys[s] ^= key;
+         hash ^= Long.rotateLeft(key, r);
+         if ( ++rowFill[s] == colNr ) addFullRow(r);
+         if ( r < colTop[c] ) colTop[c] = r;
+         markDirty(r, r);
       }
+      version++;
    }
 
    /**
-    *  Called by the owner tetris after a tetrad is fixed on the game board.
+    *  Called by the owner engine after a tetrad is fixed on the game board.
     *  Remove rows without empty cells and drop the blocks above the removed rows
     *
-    *  @return int: number of rows removed - used by the tetris to update the scores
+    *  @return int: number of rows removed - used by the engine to update the scores
     */
    public int clearFullRows()
    {
-      int totalRemoved = 0;
+      return clearFullRows(null);
+   }
 
-      for ( int r = rowNr - 1; r > emptyRowStart; --r) {
-         boolean full = true;
-         for ( int c = 0; c < colNr; c++ ) {
-            if ( cellArray[r][c] == empty ) {
-               full = false;
-               break;
-            }
-         }
-         if ( full ) {
-            deleteRow(r);
-            // stay at this row
-            r++;
-            totalRemoved++;
-         }
+   /**
+    *  Remove rows without empty cells and drop the blocks above the removed
+    *  rows: the full rows are found first, then the board is compacted in
+    *  one pass (compactRows)
+    *
+    *  @param int[] - receives the indexes of the rows removed (as they were
+    *                 before, the bottom row first), as many as it can take -
+    *                 at most 4 after a tetrad is placed; null if not needed
+    *  @return int: number of rows removed
+    */
+   public int clearFullRows(int[] removedRows)
+   {
+      if ( fullNr == 0 ) return 0;
+
+      // the full rows from the bottom up
+      for ( int ix = 1; ix < fullNr; ix++ ) {
+         int r = fullRows[ix];
+         int jx = ix;
+         for ( ; jx > 0 && fullRows[jx - 1] < r; jx-- ) fullRows[jx] = fullRows[jx - 1];
+         fullRows[jx] = r;
+      }
+
+      if ( removedRows != null ) {
+         System.arraycopy(fullRows, 0, removedRows, 0, Math.min(fullNr, removedRows.length));
       }
+      // the rows from the top of the blocks down to the lowest full row change
+      markDirty(Math.max(emptyRowStart, 0), fullRows[0]);
+      int removed = fullNr;
+      compactRows(removed);
+      fullNr = 0;
+      emptyRowStart += removed;
+      updateSurface(removed);
+      version++;
+      return removed;
+   }
 
-      emptyRowStart += totalRemoved;
-      return totalRemoved;
+   /*
+    * row r has been made full - noted for clearFullRows
+    */
+   private void addFullRow(int r)
+   {
+      if ( fullNr == fullRows.length ) fullRows = Arrays.copyOf(fullRows, 2*fullNr);
+      fullRows[fullNr++] = r;
    }
 
    /*
-    * Called by clearFullRow to drop one row the tetrad blocks that are above
-    * the specified row index
+    * Called by clearFullRows after rows were removed.
+    * Every removed row was full, so it was at or below the surface of each colum:
+    * the old top cell moved down by removedNr rows unless it was removed itself,
+    * the new top is the first occupied cell from there.
     *
-    * @param int - the row index to be cleared
+    * @param int - the number of rows removed
     */
-   private void deleteRow(int row)
+   private void updateSurface(int removedNr)
    {
-      // drop the blocks above the line
-      if ( row == 0 ) {
-         for ( int c = 0; c < colNr; ++c ) cellArray[0][c] = empty;
-         return;
+      for ( int c = 0; c < colNr; ++c ) {
+         int top = colTop[c] + removedNr;
+         while ( top < rowNr && !isOccupied(c, top) ) top++;
+         colTop[c] = top;
       }
+   }
+
+   /*
+    * Called by clearFullRows to remove the full rows from the ring in one
+    * pass: every other row moves once, straight to its slot. The references
+    * of the rows on the side with fewer rows move:
+    *   - the rows above the lowest full row down, by the full rows below them
+    *   - or the rows below the highest full row up, by the full rows above
+    *     them, and the ring turns back by the full rows (the rows above the
+    *     highest full row drop without moving)
+    * The keys of a row that drops d rows are rotated by d in the hash.
+    *
+    * @param int - the number of full rows, in fullRows from the bottom up
+    */
+   private void compactRows(int removedNr)
+   {
+      int top = emptyRowStart + 1;
+      int lowest = fullRows[0];
+      int highest = fullRows[removedNr - 1];
+      // the keys of the rows passed: where they were, where they went
+      long keysOut = 0;
+      long keysIn = 0;
 
-      if ( row > 0 ) {
-         int top = emptyRowStart;
-         if ( top < 0 ) top = 0;
-         for ( int r = row - 1; r >= top; --r ) {
-            for (int c = 0; c <  colNr; ++c )
-               cellArray[r + 1][c] = cellArray[r][c];
+      if ( lowest - top + 1 <= rowNr - highest ) {
+         int shift = 0;
+         for ( int r = lowest; r >= top; --r ) {
+            int s = slot(r);
+            keysOut ^= Long.rotateLeft(rowKeys[s], r);
+            if ( shift < removedNr && fullRows[shift] == r ) {
+               shift++;
+            } else {
+               keysIn ^= Long.rotateLeft(rowKeys[s], r + shift);
+               moveSlot(s, slot(r + shift));
+            }
          }
-      }
-      if ( row == 0 || emptyRowStart < 0 ) {
-         for ( int c = 0; c < colNr; ++c )
-            cellArray[0][c] = empty;
+         for ( int r = top; r < top + removedNr; ++r ) clearSlot( slot(r) );
+         hash ^= keysOut ^ keysIn;
+      } else {
+         int shift = 0;
+         for ( int r = highest; r < rowNr; ++r ) {
+            int s = slot(r);
+            keysOut ^= Long.rotateLeft(rowKeys[s], r);
+            if ( shift < removedNr && fullRows[removedNr - 1 - shift] == r ) {
+               shift++;
+            } else {
+               keysIn ^= Long.rotateLeft(rowKeys[s], r + removedNr - shift);
+               moveSlot(s, slot(r - shift));
+            }
+         }
+         for ( int r = rowNr - removedNr; r < rowNr; ++r ) clearSlot( slot(r) );
+         // the new top rows are slots kept empty (or the slots just cleared)
+         base = (base - removedNr) & ringMask;
+         // the rows above the highest full row drop by removedNr
+         hash = Long.rotateLeft(hash ^ keysOut, removedNr) ^ keysIn;
       }
    }
 
@@ -319,12 +888,14 @@ public class GameBoard extends GridBoard
     * because some block's positions are not valid
     * lift the block one or two rows to get some valid rows of block
     *
+    * @param int[][] - the colors of the cells (a snapshot of the board)
     * @param Point[] - ordered in ascending order of (x, y) of the Point
     *                   top-left the first, bottum-righ the last
     * @return ArrayList<Point> - blocks that can be placed on the gameboard
     *                            null if none of them
+    * (package access: also used by the RasterBoardRenderer)
     */
-   private ArrayList<Point> getFeasibleBlockPosByLifting(Point[] blkArray)
+   ArrayList<Point> getFeasibleBlockPosByLifting(int[][] cells, Point[] blkArray)
    {
       boolean tryMore = true;
       int lastIx = blkArray.length - 1;
@@ -343,7 +914,7 @@ public class GameBoard extends GridBoard
             }
 
             if ( rowIx == blk.y ) {
-               if ( cellArray[rowIx - liftRowNr][blk.x] != empty ) {
+               if ( cells[rowIx - liftRowNr][blk.x] != empty ) {
                   // lift one more row
                   liftRowNr++;
                   break;
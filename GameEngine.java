@@ -0,0 +1,932 @@
+/**
+ * The game engine holds the state and the rules of a tetris game.
+ * It has no dependency on the AWT display (no Panel, no Timer, no Graphics),
+ * so games can be run headless, for example by a simulator on a server.
+ *
+ * The engine owns
+ *   -  the game board (class GameBoard) with the tetrad blocks fixed on it
+ *   -  the active tetrad and the stand-by tetrad
+ *   -  the preview: the tetrads coming after the stand-by tetrad, drawn from
+ *      the tetrad source in advance (none by default, see setPreviewNr)
+ *   -  the scores, the level and the time played
+ *   -  the status of the game (not started, in progress, paused, over)
+ *
+ * The engine is driven from outside:
+ *   -  advance(nanos): the game time moved on; the time is accumulated and the
+ *      active tetrad drops down one row every (period*speedLevel) milliseconds
+ *      (sooner if fast drop requested). Any time step works - the drops are
+ *      the same whether the time comes in one piece or in many small ones.
+ *      step() is advance by one period (50 milliseconds)
+ *   -  input methods, one per player instruction: shift, rotate, fastDrop,
+ *      hardDrop, pause and enter (start, restart or resume)
+ *   -  state methods to query the game status, the tetrads, scores and time
+ *
+ * Each step or input method returns true if the state of the game changed,
+ * i.e. a view of the game needs a repaint.
+ *
+ * The player instructions can also be given as command codes (CMD_*), applied
+ * by apply(int). A game loop queues them (see CommandQueue) and applies them
+ * on its own thread, the only thread changing the engine. The views read
+ * immutable snapshots of the game (see BoardSnapshot) taken by snapshot().
+ *
+ * The whole state of a game can be saved into a compact binary form and
+ * restored (save, restore): to suspend and resume a game, or to fork many
+ * games from one position - every engine restored from the same bytes goes
+ * on exactly like the saved one for the same inputs.
+ *
+ * Every engine has its own tetrad source (see TetradSource), so engines
+ * running in parallel threads never share (and contend for) a generator.
+ * A seed and the randomizer mode (random or 7-bag) can be given to the
+ * constructor: the same seed and mode give the same game for the same inputs.
+ *
+ * The rules (as they have been implemented by the tetris):
+ *   Scores are rewarded when there are full rows are removed.
+ *   Multiple full rows shall get bonus points. The bonus increses
+ *   follow the numbers of additinal full rows.
+ *
+ *   According to the scores achieved, the player is ranked by levels.
+ *   Scores 0 is at the first level. Every additinal 500 points add one score level.
+ *
+ *   The tetrad droping speed depends on the score levels achieved.
+ *   The game has 3 different speeds.
+ *     - entry (level 1 and 2, scores < 1000) - slowest
+ *     - intermediate (level 3 - 6, 1000 <= scores < 3000) - medium
+ *     - advanced (level 7 and up, scores >= 3000) - fastest
+ */
+
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+
+public class GameEngine
+{
+   /*
+    * the command codes of the player instructions, see apply(int)
+    */
+   public static final int CMD_SHIFT_LEFT = 0;
+   public static final int CMD_SHIFT_RIGHT = 1;
+   public static final int CMD_ROTATE = 2;
+   public static final int CMD_FAST_DROP = 3;
+   public static final int CMD_HARD_DROP = 4;
+   public static final int CMD_PAUSE = 5;
+   public static final int CMD_ENTER = 6;
+
+   // the saved state of a game: "TTSV" and the format version
+   public static final int SAVE_MAGIC = 0x54545356;
+   public static final int SAVE_VERSION = 1;
+   // the bytes of a saved state without the board: at most 150 (all varints 10 bytes)
+   private static final int SAVE_FIXED_SIZE = 192;
+   // the board sizes restored: a tetrad fits, and not more memory than a damaged size would ask
+   private static final int MIN_SIZE = 4;
+   private static final int MAX_SAVED_SIZE = 1 << 15;
+   private static final long MAX_SAVED_CELLS = 1L << 24;
+
+   // row and col numbers of the game board
+   private int rowNr = 0;
+   private int colNr = 0;
+
+   /*
+    * A game board is a rowNr x colNr cell grid
+    * the tetrad move (left/right/drop) along the cell grid
+    */
+   private GameBoard gameBoard = null;
+
+   // the active tetrad, the tetrad in-play
+   private Tetrad currTetrad = null;
+
+   // the stand-by tetrad, the tetrad that will be in-play next
+   private Tetrad nextTetrad = null;
+
+   // the sequence of tetrads of this game
+   private TetradSource source = null;
+
+   /*
+    * the preview: the tetrads after the stand-by tetrad, in the order they come
+    *  - previewNr - 1 tetrads are drawn in advance from the source, the order
+    *    of the tetrads of the game does not depend on the preview number
+    */
+   public static final int MAX_PREVIEW_NR = 6;
+   private ArrayDeque<Tetrad> previewQueue = new ArrayDeque<Tetrad>();
+   // how many upcoming tetrads are shown, the stand-by tetrad included
+   private int previewNr = 1;
+   // changed whenever the stand-by tetrad or the preview changed
+   private long previewVersion = 0;
+
+   /*
+    * buffer for the block positions of the active tetrad, reused to avoid allocation
+    */
+   private int[] blkPos = new int[8];
+
+   /*
+    * how many rows to drop when the fast drop key is pressed
+    * used as a factor to shorten the droping cycle for one row
+    */
+   private double   fastDropRowNr = 2.5;
+   // normal drop: 1 row in one drop cycle
+   private double   nextDropRowNr = 1.0;
+
+   /*
+    * the time a step stands for, in milliseconds; the unit of the speed levels
+    */
+   private final int  period = 50;
+   private static final long NANOS_PER_MILLI = 1000000L;
+
+   /* drop down every (period*speedLevel) milliseconds
+    *   14 the slowest - 50*14 = 0.7 seconds drop one row
+    *   12 medium speed - 50*12 = 0.6 seconds drop one row
+    *   10 the fastest - 50*10 = 0.5 second drop one row
+    */
+   private int slowestSpeedLevel = 14;
+   private int speedLevelIncrement = 2;
+   private int fastestSpeedLevel = 10;
+   private int speedLevel = slowestSpeedLevel;
+
+   /* the game time (in nanoseconds) passed since the last drop-down
+    * implements the speed-up feature:
+    *  - do the drop-down only if the dropTime reached the drop interval
+    *    (period*speedLevel/nextDropRowNr milliseconds)
+    *  - the rest of the time is kept for the next drop-down
+    */
+   private long dropTime = 0;
+
+   // The scores and level reached
+   private long scores = 0;
+   private int  level = 1;
+   // how long (in nanosecond) the game is in-progess
+   private long timePlayed  = 0;
+   // statistics: tetrads fixed on the board and rows cleared
+   private long placements = 0;
+   private long linesCleared = 0;
+   // the rows removed by the last placement (before removal, the bottom row first)
+   private int[] clearedRows = new int[4];
+   private int clearedNr = 0;
+
+   /*
+    * status variabes of the game
+    */
+   private boolean gameStarted = false;
+   private boolean gamePaused = false;
+   private boolean gameOver = false;
+
+   /**
+    * Class Constructor specifying the size of the game board
+    *  @param row  the row number of the game board
+    *  @param col  the column number of the game board
+    */
+   public GameEngine(int row, int col)
+   {
+      this(row, col, TetradSource.create( TetradSource.Mode.RANDOM,
+                                          SplitMix64.mix64(System.nanoTime()) ));
+   }
+
+   /**
+    * Class Constructor specifying the size of the game board and the seed
+    * of the tetrads (picked at random) - the same seed gives the same tetrads
+    *  @param row  the row number of the game board
+    *  @param col  the column number of the game board
+    *  @param seed the seed of the tetrad source
+    */
+   public GameEngine(int row, int col, long seed)
+   {
+      this(row, col, TetradSource.create(TetradSource.Mode.RANDOM, seed));
+   }
+
+   /**
+    * Class Constructor specifying the size of the game board and the
+    * source of the tetrads
+    *  @param row  the row number of the game board
+    *  @param col  the column number of the game board
+    *  @param src  the tetrad source, at the start of its sequence
+    */
+   public GameEngine(int row, int col, TetradSource src)
+   {
+      rowNr = row;
+      colNr = col;
+      source = src;
+      gameBoard = new GameBoard(rowNr, colNr);
+   }
+
+   /**
+    * Reset the status and control variables to default values
+    * Called when a new game is started (Enetr key after game over)
+    */
+   public void reset()
+   {
+      gameOver = false;
+      gamePaused = false;
+      scores = 0;
+      level = 1;
+      timePlayed  = 0;
+      placements = 0;
+      linesCleared = 0;
+      clearedNr = 0;
+      dropTime = 0;
+      nextDropRowNr = 1;
+      speedLevel = slowestSpeedLevel;
+
+      gameBoard.reset();
+   }
+
+   /**
+    *  Tells if the first game has been started
+    *  @return boolean
+    */
+   public boolean gameStarted() {  return gameStarted;  }
+
+   /**
+    * Tells if the game is paused
+    * @return boolean
+    */
+   public boolean gamePaused() {  return gamePaused;  }
+
+   /**
+    *  Tells if the game is over (no tetrad can enter the game board)
+    *  @return boolean
+    */
+   public boolean gameOver() {  return gameOver;  }
+
+   /**
+    * Tells if the game is in-progress
+    * @returns boolean
+    */
+   public boolean gameInProgress()
+   {
+      if ( gameStarted && !gameOver && !gamePaused ) return true;
+      else return false;
+   }
+
+   /**
+    * @return GameBoard: the game board with the fixed tetrad blocks
+    */
+   public GameBoard getGameBoard() {  return gameBoard;  }
+
+   /**
+    * @return TetradSource: the sequence of tetrads of this game
+    */
+   public TetradSource getTetradSource() {  return source;  }
+
+   /**
+    * @return Tetrad: the active tetrad currently in-play
+    */
+   public Tetrad getCurrTetrad() {  return currTetrad;  }
+
+   /**
+    * @return Tetrad the stand-by tetrad that will be in-play next
+    */
+   public Tetrad getNextTetrad() {  return nextTetrad;  }
+
+   /**
+    * Set how many upcoming tetrads are shown (the stand-by tetrad included)
+    * @param int: 1 to MAX_PREVIEW_NR (1 - the stand-by tetrad only)
+    */
+   public void setPreviewNr(int n)
+   {
+      if ( n < 1 || n > MAX_PREVIEW_NR )
+         throw new IllegalArgumentException("preview number " + n + " not in [1, " + MAX_PREVIEW_NR + "]");
+      previewNr = n;
+      if ( nextTetrad != null ) fillPreview();
+   }
+
+   /**
+    * @return int: how many upcoming tetrads are shown (the stand-by tetrad included)
+    */
+   public int getPreviewNr() {  return previewNr;  }
+
+   /**
+    * @param int: 0 - the first tetrad after the stand-by tetrad, 1 the second, ...
+    * @return Tetrad: the tetrad coming at that place, null if not drawn
+    *                 (only previewNr - 1 are) or the game is not in progress
+    */
+   public Tetrad getPreviewTetrad(int ix)
+   {
+      if ( nextTetrad == null || ix < 0 || ix >= previewNr - 1 ) return null;
+      Iterator<Tetrad> it = previewQueue.iterator();
+      for ( int i = 0; i < ix && it.hasNext(); i++ ) it.next();
+      return it.hasNext() ? it.next() : null;
+   }
+
+   /**
+    * @return long: the scores reached
+    */
+   public long getScores() {  return scores;  }
+
+   /**
+    * @return int: the score level reached
+    */
+   public int getLevel() {  return level;  }
+
+   /**
+    * @return long: how long (in millisecond) the game is in-progess
+    */
+   public long getTimePlayed() {  return timePlayed / NANOS_PER_MILLI;  }
+
+   /**
+    * @return long: how long (in nanosecond) the game is in-progess
+    */
+   public long getTimePlayedNanos() {  return timePlayed;  }
+
+   /**
+    * @return long: how many tetrads have been fixed on the board
+    */
+   public long getPlacements() {  return placements;  }
+
+   /**
+    * @return long: how many full rows have been cleared
+    */
+   public long getLinesCleared() {  return linesCleared;  }
+
+   /**
+    * @return int[]: the rows removed by the last tetrad placed - their row
+    *                indexes before the removal, the bottom row first
+    *                (empty if none), e.g. for an animation of the clear
+    */
+   public int[] getLastClearedRows() {  return Arrays.copyOf(clearedRows, clearedNr);  }
+
+   /**
+    * @return int: the number of steps between two drop downs
+    */
+   public int getSpeedLevel() {  return speedLevel;  }
+
+   /**
+    * @return int: the time a step stands for, in milliseconds
+    */
+   public int getPeriod() {  return period;  }
+
+   /**
+    * One timer period passed: count the time played and drop down the
+    * active tetrad if the drop interval is reached
+    *
+    * @return boolean: true if the active tetrad moved (repaint required)
+    */
+   public boolean step()
+   {
+      return advance(period * NANOS_PER_MILLI);
+   }
+
+   /**
+    * The game time moved on: count the time played and drop down the
+    * active tetrad once for every drop interval reached.
+    * Nothing happens if the game is not in progress (the time is not counted).
+    *
+    * @param long: the time passed, in nanoseconds
+    * @return boolean: true if the active tetrad moved (repaint required)
+    */
+   public boolean advance(long nanos)
+   {
+      if ( !gameInProgress() || nanos <= 0 ) return false;
+
+      timePlayed += nanos;
+      dropTime += nanos;
+
+      boolean moved = false;
+      // the interval changes with the speed level and the fast drop
+      for ( long interval = dropInterval(); dropTime >= interval; interval = dropInterval() ) {
+         dropTime -= interval;
+         // timed only with the metrics on (see GameMetrics.MOVED_DOWN)
+         boolean timed = GameMetrics.enabled;
+         long start = timed ? System.nanoTime() : 0;
+         moved |= movedDown();
+         if ( timed ) GameMetrics.MOVED_DOWN.record( System.nanoTime() - start );
+         if ( !gameInProgress() ) {
+            dropTime = 0;
+            break;
+         }
+      }
+      return moved;
+   }
+
+   /**
+    * Used by a game loop to sleep until something is due
+    * @return long: the time (in nanoseconds) until the next drop down,
+    *               Long.MAX_VALUE if the game is not in progress
+    */
+   public long nanosToNextDrop()
+   {
+      if ( !gameInProgress() ) return Long.MAX_VALUE;
+      return Math.max(0, dropInterval() - dropTime);
+   }
+
+   /*
+    * @return long: the time between two drop downs, in nanoseconds
+    */
+   private long dropInterval()
+   {
+      return (long)( period * NANOS_PER_MILLI * speedLevel / nextDropRowNr );
+   }
+
+   /**
+    * Do the drop down of the current tetrad if feasible
+    * If the tetrad has touched the ground
+    *  - fix the tetard blocks in its current positions
+    *  - If the drop-down results in full rows
+    *     - clear those full rows
+    *     - drow down tetrad blocks in the rows above
+    *     - update the scores and level of the game
+    *     - update the speed if the scores reached certain levels
+    * Turn the next tetrad to the current tetrad and
+    * try to drop it into the game board,
+    *    - if not possible, i.e., hit fixed tetard blocks in
+    *      its drop position, turn the status to game over
+    *    - if possible, get the next stand-by tetrad
+    *
+    * @return boolean: false if the game is not in-play (e.g, game pause, game over)
+    *                  true otherwise (repaint required)
+    */
+   public boolean movedDown()
+   {
+      if ( !gameStarted || gamePaused || gameOver || currTetrad == null )
+         return false;
+
+      // the postions (col, row) of the blocks in the cellArray
+      currTetrad.getBlockPos(0, blkPos);
+
+      /*
+       * check if the drop down feasible
+       */
+      if ( gameBoard.isValidMoveDown(blkPos) ) {
+         // drop down one row
+         currTetrad.dropDownOneRow();
+         nextDropRowNr = 1;  // back to normal in case of fast drop
+         return true;
+      }
+
+      /*
+       * touched the ground - fixed the on the board
+       */
+      gameBoard.placeBlocks(blkPos, currTetrad.getColorIx());
+      ++placements;
+
+      /*
+       * update the score and the levels
+       */
+      int fullNr = gameBoard.clearFullRows(clearedRows);
+      clearedNr = fullNr;
+      if ( fullNr > 0 ) {
+         linesCleared += fullNr;
+         int rowScore = 100;
+         int rowBonus = 50;
+         /* 2nd full row get base bonus
+          * 3nd full row bonus doubled
+          * 4rd full row bonus trippled
+          */
+         for ( int ix = 0; ix < fullNr; ++ix ) {
+            scores += (rowScore + ix*rowBonus);
+         }
+
+         // increase the level and speed
+         int levelMark = 500;
+         int delta = (int)(scores - levelMark * level);
+         if ( delta > 0 ) {
+            // increase the levels
+            delta = 1 + (int)(delta/levelMark);
+            level += delta;
+            if ( speedLevel > fastestSpeedLevel ) {
+               /* only 3 levels
+                *   - entry (level 1, 2): slowest one drop down
+                *   - intermediate (level 3 - 6): in between
+                *   - advanced (level 7 and up): fastest
+                */
+               if ( level >= 7 ) speedLevel = fastestSpeedLevel;
+               else if ( level >= 3 ) speedLevel = fastestSpeedLevel + speedLevelIncrement;
+            }
+         }
+      }
+
+      /*
+       * activate the stand-by tetrad
+       */
+      setAsCurrTetrad(nextTetrad);
+      currTetrad.getBlockPos(0, blkPos);
+      if ( !gameBoard.isValidAndEmpty(blkPos) ) {
+         // cannot enter the board - game over
+         gameOver = true;
+         nextTetrad = null;
+         // the preview is kept for the next game - the tetrads come in the
+         // same order whatever the preview number
+         previewVersion++;
+         return true;
+      }
+
+      // new stand-by tetrad
+      setAsNextTetrad( drawTetrad() );
+
+      return true;
+   }
+
+   /**
+    * shift the active tetrad left or right if feasible
+    * @param int: -1 - shift left one colum; 1 - shift right one colum
+    * @return boolean: true if the tetrad moved
+    */
+   public boolean shift(int dir)
+   {
+      if ( currTetrad == null || gameOver || gamePaused ) return false;
+
+      currTetrad.getBlockPos(0, blkPos);
+      if ( gameBoard.isValidShift(blkPos, dir) ) {
+         currTetrad.shift(dir);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * rotate the active tetrad clockwise if feasible
+    * @return boolean: true if the tetrad rotated
+    */
+   public boolean rotate()
+   {
+      if ( currTetrad == null || gameOver || gamePaused ) return false;
+
+      currTetrad.getBlockPos(1, blkPos);
+      if ( gameBoard.isValidAndEmpty(blkPos) ) {
+         currTetrad.rotate(1);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * shorten the drop cycle of the active tetrad until its next drop down
+    * @return boolean: always false - nothing moved yet
+    */
+   public boolean fastDrop()
+   {
+      if ( currTetrad != null && !gameOver && !gamePaused ) {
+         nextDropRowNr = fastDropRowNr;
+      }
+      return false;
+   }
+
+   /**
+    * drop the active tetrad to the ground and fix it on the board at once
+    * @return boolean: true if the game state changed
+    */
+   public boolean hardDrop()
+   {
+      if ( currTetrad == null || gameOver || gamePaused ) return false;
+
+      currTetrad.getBlockPos(0, blkPos);
+      currTetrad.dropDown( gameBoard.getDropDistance(blkPos) );
+      // touched the ground - fix it on the board
+      movedDown();
+      dropTime = 0;
+      return true;
+   }
+
+   /**
+    * pause the game in progress
+    * @return boolean: true if the game is paused by this call
+    */
+   public boolean pause()
+   {
+      if ( gameStarted && !gameOver && !gamePaused ) {
+         gamePaused = true;
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * start the first game, start a new game after game over,
+    * or resume the paused game
+    * @return boolean: true if the game status changed
+    */
+   public boolean enter()
+   {
+      if ( !gameStarted ) {
+         gameStarted = true;
+         start();
+         return true;
+      } else if ( gameOver ) {
+         reset();
+         start();
+         return true;
+      } else if ( gamePaused ) {
+         gamePaused = false;
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * @return int: an upper bound of the bytes save() writes for this game
+    */
+   public int saveSize()
+   {
+      return SAVE_FIXED_SIZE + rowNr*(5 + (colNr + 1)/2);
+   }
+
+   /**
+    * Save the state of the game:
+    *   - SAVE_MAGIC, SAVE_VERSION; the row, colum and preview numbers
+    *   - the tetrad source: its mode, seed and state
+    *   - the status flags, the scores, level, speed level, time played,
+    *     drop time (nanoseconds) and statistics (varints)
+    *   - the active tetrad (type, orientation, position, color), the stand-by
+    *     tetrad and the preview (type, color)
+    *   - the cells of the board (GameBoard.saveCells: nibble-packed colors,
+    *     empty rows run-length encoded)
+    * An empty 23 x 16 game takes about 40 bytes, a game in progress 40 bytes
+    * plus 8 per occupied row.
+    * @param ByteBuffer - where to put the state, at least saveSize() bytes remaining
+    */
+   public void save(ByteBuffer out)
+   {
+      out.putInt(SAVE_MAGIC);
+      out.put( (byte)SAVE_VERSION );
+      GameBoard.putVarint(out, rowNr);
+      GameBoard.putVarint(out, colNr);
+      out.put( (byte)previewNr );
+
+      out.put( (byte)source.getMode().ordinal() );
+      out.putLong( source.getSeed() );
+      source.saveState(out);
+
+      int flags = (gameStarted ? 1 : 0) | (gamePaused ? 2 : 0) | (gameOver ? 4 : 0)
+                  | (nextDropRowNr != 1 ? 8 : 0);
+      out.put( (byte)flags );
+      putVarlong(out, scores);
+      GameBoard.putVarint(out, level);
+      GameBoard.putVarint(out, speedLevel);
+      putVarlong(out, timePlayed);
+      putVarlong(out, dropTime);
+      putVarlong(out, placements);
+      putVarlong(out, linesCleared);
+
+      // the active tetrad, with its position and orientation
+      if ( currTetrad == null ) {
+         out.put( (byte)-1 );
+      } else {
+         currTetrad.getBlockPos(0, blkPos);
+         int[] offsets = Tetrad.getBlockOffsets(currTetrad.getTypeIx(), currTetrad.getRotation());
+         out.put( (byte)(currTetrad.getTypeIx() | (currTetrad.getRotation() << 4)) );
+         out.put( (byte)currTetrad.getColorIx() );
+         // the top-left of its 4*4 grid, which may be out of the board (+ 4)
+         GameBoard.putVarint(out, blkPos[0] - offsets[0] + 4);
+         GameBoard.putVarint(out, blkPos[1] - offsets[1] + 4);
+      }
+      // the stand-by tetrad and the preview: type and color
+      putTetrad(out, nextTetrad);
+      out.put( (byte)previewQueue.size() );
+      for ( Tetrad tetrad : previewQueue ) putTetrad(out, tetrad);
+
+      gameBoard.saveCells(out);
+   }
+
+   /**
+    * Restore a game saved by save()
+    * @param ByteBuffer - the saved state
+    * @return GameEngine: a new engine in the saved state
+    * @throws IllegalArgumentException - if the bytes are no saved game, or a
+    *                                    value restored is out of its range
+    */
+   public static GameEngine restore(ByteBuffer in)
+   {
+      try {
+         if ( in.getInt() != SAVE_MAGIC || in.get() != SAVE_VERSION )
+            throw new IllegalArgumentException("not a saved game of version " + SAVE_VERSION);
+         int row = GameBoard.checkRange( GameBoard.getVarint(in), MIN_SIZE, MAX_SAVED_SIZE, "row number" );
+         int col = GameBoard.checkRange( GameBoard.getVarint(in), MIN_SIZE, MAX_SAVED_SIZE, "colum number" );
+         if ( (long)row*col > MAX_SAVED_CELLS )
+            throw new IllegalArgumentException("board " + row + "x" + col + " too large");
+         int preview = GameBoard.checkRange( in.get(), 1, MAX_PREVIEW_NR, "preview number" );
+
+         TetradSource.Mode[] modes = TetradSource.Mode.values();
+         TetradSource.Mode mode = modes[ GameBoard.checkRange(in.get(), 0, modes.length - 1, "tetrad source") ];
+         TetradSource src = TetradSource.create(mode, in.getLong());
+         src.restoreState(in);
+
+         GameEngine engine = new GameEngine(row, col, src);
+         engine.previewNr = preview;
+         int flags = in.get();
+         engine.gameStarted = (flags & 1) != 0;
+         engine.gamePaused = (flags & 2) != 0;
+         engine.gameOver = (flags & 4) != 0;
+         if ( (flags & 8) != 0 ) engine.nextDropRowNr = engine.fastDropRowNr;
+         engine.scores = getVarlong(in);
+         engine.level = GameBoard.checkRange( GameBoard.getVarint(in), 1, Integer.MAX_VALUE, "level" );
+         // the drop interval is period*speedLevel - never 0
+         engine.speedLevel = GameBoard.checkRange( GameBoard.getVarint(in), engine.fastestSpeedLevel,
+                                                   engine.slowestSpeedLevel, "speed level" );
+         engine.timePlayed = checkCount( getVarlong(in), "time played" );
+         engine.dropTime = checkCount( getVarlong(in), "drop time" );
+         engine.placements = checkCount( getVarlong(in), "placements" );
+         engine.linesCleared = checkCount( getVarlong(in), "lines cleared" );
+
+         int typeRotation = in.get();
+         if ( typeRotation >= 0 ) {
+            Tetrad tetrad = Tetrad.next( checkType(typeRotation & 0xF), checkColor(in.get()) );
+            int rotation = GameBoard.checkRange( typeRotation >>> 4, 0, 3, "rotation" );
+            for ( int rt = rotation; rt > 0; rt-- ) tetrad.rotate(1);
+            // the top-left of its 4*4 grid, at most 4 cells out of the board
+            int c = GameBoard.checkRange( GameBoard.getVarint(in), 0, col + 4, "tetrad colum" ) - 4;
+            int r = GameBoard.checkRange( GameBoard.getVarint(in), 0, row + 4, "tetrad row" ) - 4;
+            tetrad.setPos(c, r);
+            // its blocks on the board, or above it
+            tetrad.getBlockPos(0, engine.blkPos);
+            for ( int ix = 0; ix < 8; ix += 2 ) {
+               GameBoard.checkRange( engine.blkPos[ix], 0, col - 1, "block colum" );
+               GameBoard.checkRange( engine.blkPos[ix + 1], Integer.MIN_VALUE, row - 1, "block row" );
+            }
+            engine.currTetrad = tetrad;
+         }
+         engine.nextTetrad = getTetrad(in);
+         // a game goes on with the stand-by tetrad (it is dropped at game over)
+         if ( engine.currTetrad != null && engine.nextTetrad == null && !engine.gameOver )
+            throw new IllegalArgumentException("no stand-by tetrad after the active tetrad");
+         int queued = GameBoard.checkRange( in.get(), 0, MAX_PREVIEW_NR, "preview tetrads" );
+         for ( int n = queued; n > 0; n-- ) {
+            Tetrad tetrad = getTetrad(in);
+            if ( tetrad == null ) throw new IllegalArgumentException("preview tetrad missing");
+            engine.previewQueue.add(tetrad);
+         }
+         // a game goes on with a full preview (it is shown from the snapshots)
+         if ( engine.nextTetrad != null && queued != preview - 1 )
+            throw new IllegalArgumentException(queued + " preview tetrads, not " + (preview - 1));
+
+         engine.gameBoard.restoreCells(in);
+         // the active tetrad is on the board, in empty cells (unless it could not enter it)
+         if ( engine.currTetrad != null && !engine.gameOver
+              && !engine.gameBoard.isValidAndEmpty(engine.blkPos) )
+            throw new IllegalArgumentException("active tetrad not on empty cells of the board");
+         return engine;
+      } catch ( BufferUnderflowException | IndexOutOfBoundsException e ) {
+         throw new IllegalArgumentException("saved game truncated or damaged", e);
+      }
+   }
+
+   /*
+    * a tetrad at its show position: the type and the color, -1 if none
+    */
+   private static void putTetrad(ByteBuffer out, Tetrad tetrad)
+   {
+      if ( tetrad == null ) {
+         out.put( (byte)-1 );
+         return;
+      }
+      out.put( (byte)tetrad.getTypeIx() );
+      out.put( (byte)tetrad.getColorIx() );
+   }
+
+   private static Tetrad getTetrad(ByteBuffer in)
+   {
+      int type = in.get();
+      if ( type < 0 ) return null;
+      Tetrad tetrad = Tetrad.next( checkType(type), checkColor(in.get()) );
+      tetrad.setPos(0, 0);
+      return tetrad;
+   }
+
+   /*
+    * the checks of the values restored (see GameBoard.checkRange)
+    */
+   private static int checkType(int type)
+   {
+      return GameBoard.checkRange(type, 0, Tetrad.TYPE_NR - 1, "tetrad type");
+   }
+
+   private static int checkColor(int color)
+   {
+      return GameBoard.checkRange(color, 1, ColorServer.getColorNr() - 1, "tetrad color");
+   }
+
+   private static long checkCount(long value, String what)
+   {
+      if ( value < 0 ) throw new IllegalArgumentException(what + " " + value + " < 0");
+      return value;
+   }
+
+   private static void putVarlong(ByteBuffer out, long value)
+   {
+      while ( (value & ~0x7FL) != 0 ) {
+         out.put( (byte)((value & 0x7F) | 0x80) );
+         value >>>= 7;
+      }
+      out.put( (byte)value );
+   }
+
+   private static long getVarlong(ByteBuffer in)
+   {
+      long value = 0;
+      for ( int shift = 0; ; shift += 7 ) {
+         byte b = in.get();
+         value |= (long)(b & 0x7F) << shift;
+         if ( b >= 0 ) return value;
+      }
+   }
+
+   /**
+    * Apply a player instruction given as a command code
+    * @param int: one of the CMD_* codes
+    * @return boolean: true if the game state changed (repaint required)
+    */
+   public boolean apply(int command)
+   {
+      switch ( command ) {
+         case CMD_SHIFT_LEFT:   return shift(-1);
+         case CMD_SHIFT_RIGHT:  return shift(1);
+         case CMD_ROTATE:       return rotate();
+         case CMD_FAST_DROP:    return fastDrop();
+         case CMD_HARD_DROP:    return hardDrop();
+         case CMD_PAUSE:        return pause();
+         case CMD_ENTER:        return enter();
+      }
+      return false;
+   }
+
+   /**
+    * Take an immutable snapshot of the game for the views
+    * @param BoardSnapshot: the snapshot taken last (null if none) - its cells
+    *                       (or the rows of them not changed since) are shared
+    * @return BoardSnapshot: the current state of the game
+    */
+   public BoardSnapshot snapshot(BoardSnapshot previous)
+   {
+      int[][] cells;
+      long version = gameBoard.getVersion();
+      if ( previous != null && previous.boardVersion == version ) {
+         cells = previous.cells;
+      } else {
+         cells = gameBoard.copyCells( previous == null ? null : previous.cells );
+      }
+
+      Tetrad curr = null;
+      int[] ghostPos = null;
+      if ( currTetrad != null ) {
+         curr = currTetrad.copy();
+         currTetrad.getBlockPos(0, blkPos);
+         int[] destPos = new int[8];
+         if ( !gameOver && gameBoard.getDestPos(blkPos, destPos) ) ghostPos = destPos;
+      }
+      // the stand-by tetrad and the preview change only when a tetrad is drawn
+      Tetrad next = null;
+      Tetrad[] preview = null;
+      if ( previous != null && previous.previewVersion == previewVersion ) {
+         next = previous.nextTetrad;
+         preview = previous.preview;
+      } else {
+         if ( nextTetrad != null ) next = nextTetrad.copy();
+         preview = new Tetrad[ next == null ? 0 : previewNr - 1 ];
+         for ( int ix = 0; ix < preview.length; ix++ ) preview[ix] = getPreviewTetrad(ix).copy();
+      }
+
+      return new BoardSnapshot( cells, version, curr, next, preview, previewVersion, ghostPos,
+                                scores, level, getTimePlayed(),
+                                gameStarted, gamePaused, gameOver );
+   }
+
+   /*
+    * set the droping position such that the tetrad
+    * will not skip the first row
+    */
+   private void setAsCurrTetrad(Tetrad tetrad )
+   {
+      currTetrad = tetrad;
+      currTetrad.setPos((colNr - 4)/2, 0 - tetrad.getTopIndent());
+      nextDropRowNr = 1;
+   }
+
+   /*
+    * we determine the size of the show box based on the real size
+    * of the tetard (add one exta row/column on each side)
+    * Set the stand-by tetrad position to (0, 0) will display it
+    * in the center of the show box
+    */
+   private void setAsNextTetrad(Tetrad tetrad)
+   {
+      nextTetrad = tetrad;
+      // postion in the show box
+      nextTetrad.setPos(0, 0);
+   }
+
+   /*
+    * start a game
+    */
+   private void start()
+   {
+      setAsCurrTetrad( drawTetrad() );
+      setAsNextTetrad( drawTetrad() );
+   }
+
+   /*
+    * @return Tetrad: the next tetrad of the game - the first of the preview,
+    *                 the preview is filled up again from the source
+    */
+   private Tetrad drawTetrad()
+   {
+      Tetrad tetrad = previewQueue.isEmpty() ? source.next() : previewQueue.poll();
+      fillPreview();
+      return tetrad;
+   }
+
+   /*
+    * draw tetrads from the source until previewNr - 1 are in the preview
+    */
+   private void fillPreview()
+   {
+      while ( previewQueue.size() < previewNr - 1 ) previewQueue.add( source.next() );
+      previewVersion++;
+   }
+
+} // end of class GameEngine
@@ -0,0 +1,206 @@
+/**
+ * The game loop drives a GameEngine in real time on its own thread.
+ *
+ * It replaces the TimerTask that woke up every 50 milliseconds:
+ *   - the time passed is measured with System.nanoTime() and handed to
+ *     GameEngine.advance, which accumulates it - the drop downs are not
+ *     quantized to a timer period and the time played does not drift
+ *   - between two updates the loop sleeps until the next drop down is due
+ *     (or the displayed time played changes its second), nothing else
+ *   - while the game is not in progress (not started, paused, over) the
+ *     loop sleeps until it is woken up, no time is counted
+ *
+ * The loop thread is the only thread changing the engine:
+ *   - the player instructions are submitted as command codes (see
+ *     GameEngine.CMD_*) from any thread into a lock-free CommandQueue;
+ *     the loop applies them in order, before advancing the time
+ *   - after every change the loop takes an immutable snapshot of the game
+ *     (BoardSnapshot) and publishes it through a volatile reference; the
+ *     views render the last snapshot (getSnapshot), never the engine itself
+ * The listener given to the constructor is called (on the loop thread)
+ * whenever a new snapshot is published and needs a repaint.
+ *
+ * With a recorder set, the loop reports the time it advances the engine by
+ * and the commands it applies, in order - the game can be replayed exactly
+ * (see ReplayRecorder, ReplayPlayer).
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class GameLoop implements Runnable
+{
+   private static final long NANOS_PER_SECOND = 1000000000L;
+
+   // the game driven
+   private GameEngine engine;
+   // called when the game changed
+   private Runnable listener;
+
+   // the player instructions to apply
+   private CommandQueue commands = new CommandQueue(256);
+   // the last published state of the game
+   private volatile BoardSnapshot snapshot = null;
+   /*
+    * the number of commands applied - set after the snapshot showing them
+    * is published (a submitter can wait for its commands to be shown)
+    */
+   private volatile long commandsApplied = 0;
+   // the number of commands queued (applied in the same order)
+   private final AtomicLong commandsSubmitted = new AtomicLong();
+   // records the game, null if not recorded
+   private volatile ReplayRecorder recorder = null;
+
+   // set by start, read by the threads submitting and stopping
+   private volatile Thread thread = null;
+   private volatile boolean running = false;
+
+   /**
+    * The constructor
+    * @param GameEngine - the game to drive
+    * @param Runnable - called after the game changed (repaint required)
+    */
+   public GameLoop(GameEngine e, Runnable l)
+   {
+      engine = e;
+      listener = l;
+      snapshot = engine.snapshot(null);
+   }
+
+   /**
+    * Queue a player instruction for the loop thread and wake it up,
+    * called by any thread
+    * @param int - one of the GameEngine.CMD_* codes
+    * @return boolean: false if the queue is full (the instruction is dropped)
+    */
+   public boolean submit(int command)
+   {
+      boolean queued = commands.offer(command);
+      if ( queued ) commandsSubmitted.incrementAndGet();
+      wakeUp();
+      return queued;
+   }
+
+   /**
+    * @return BoardSnapshot: the last published state of the game
+    */
+   public BoardSnapshot getSnapshot() {  return snapshot;  }
+
+   /**
+    * @return long: the number of commands applied so far; the snapshot
+    *               published (getSnapshot) shows all of them
+    */
+   public long getCommandsApplied() {  return commandsApplied;  }
+
+   /**
+    * @return long: the number of commands queued so far - once
+    *               getCommandsApplied() reaches it, they are all shown
+    */
+   public long getCommandsSubmitted() {  return commandsSubmitted.get();  }
+
+   /**
+    * Record the game from now on
+    * pre-condition: no command applied yet (the recording has to start with the engine)
+    * @param ReplayRecorder - the recorder, null to stop recording
+    */
+   public void setRecorder(ReplayRecorder r) {  recorder = r;  }
+
+   /**
+    * start the loop thread (a daemon thread)
+    */
+   public void start()
+   {
+      running = true;
+      thread = new Thread(this, "game-loop");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * stop the loop thread
+    */
+   public void stop()
+   {
+      running = false;
+      wakeUp();
+   }
+
+   /**
+    * wait until the loop thread stopped (after stop)
+    */
+   public void join() throws InterruptedException
+   {
+      if ( thread != null ) thread.join();
+   }
+
+   /**
+    * wake up the loop to recalculate its sleep (e.g. the game is resumed)
+    */
+   public void wakeUp()
+   {
+      if ( thread != null ) LockSupport.unpark(thread);
+   }
+
+   /**
+    * the loop: advance the engine by the time passed, then sleep until
+    * the next thing is due
+    */
+   public void run()
+   {
+      long last = System.nanoTime();
+      long shownSecond = -1;
+      long applied = 0;
+
+      while ( running ) {
+         // the time until now passed in the state before the commands
+         long now = System.nanoTime();
+         boolean changed = engine.advance(now - last);
+         ReplayRecorder rec = recorder;
+         if ( rec != null ) rec.advanced(now - last);
+         last = now;
+
+         for ( int cmd = commands.poll(); cmd != CommandQueue.EMPTY; cmd = commands.poll() ) {
+            changed |= engine.apply(cmd);
+            if ( rec != null ) rec.applied(cmd);
+            applied++;
+         }
+
+         if ( !engine.gameInProgress() ) {
+            if ( changed ) publish();
+            commandsApplied = applied;
+            // sleep until woken up - no time passes in the game
+            LockSupport.park(this);
+            continue;
+         }
+
+         // the time played is shown in seconds
+         long played = engine.getTimePlayedNanos();
+         if ( played / NANOS_PER_SECOND != shownSecond ) {
+            shownSecond = played / NANOS_PER_SECOND;
+            changed = true;
+         }
+         if ( changed ) publish();
+         commandsApplied = applied;
+
+         // the next update is due counted from now, not from after the processing
+         long due = now + Math.min( engine.nanosToNextDrop(),
+                                    NANOS_PER_SECOND - played % NANOS_PER_SECOND );
+         long parked = System.nanoTime();
+         if ( due - parked > 0 ) {
+            LockSupport.parkNanos(this, due - parked);
+            // how late the loop woke up (see GameMetrics.TICK_JITTER)
+            if ( GameMetrics.enabled ) GameMetrics.tickWoke( System.nanoTime() - due );
+         }
+      }
+   }
+
+   /*
+    * publish a new snapshot of the game and tell the listener
+    */
+   private void publish()
+   {
+      snapshot = engine.snapshot(snapshot);
+      listener.run();
+   }
+
+} // end of class GameLoop
@@ -0,0 +1,202 @@
+/**
+ * Class GameMetrics shows how the running game behaves: latency histograms
+ * (see LatencyHistogram) recorded by the game loop and the view
+ *   - TICK_JITTER: how late the game loop woke up for an update it slept
+ *     until (a drop down or the time played shown); the loop replaces the
+ *     TimerTask, so this is what the timer's jitter was. Wake ups before
+ *     the time (a command submitted) are not counted
+ *   - MOVED_DOWN: the time GameEngine.movedDown took in the game loop
+ *     (including the placement and the rows cleared when the tetrad lands)
+ *   - KEY_TO_PAINT: from Tetris.keyPressed to the end of the first paint of
+ *     a snapshot showing the command. One key at a time is followed - the
+ *     keys pressed before it is painted are not counted; a command changing
+ *     nothing (e.g. a shift into the wall) is shown with the next change
+ *   - PAINT: the time a paint of the panel took (Tetris.render)
+ *   - FRAME_ALLOCATION: the bytes the painting thread allocated for a paint
+ *     (com.sun.management.ThreadMXBean, not counted on other JVMs)
+ *
+ * The metrics are off by default. Disabled, a place recording them reads
+ * one volatile boolean and does nothing else - no clock read, no counter.
+ * Enabled, a record is a few atomic adds, no lock, no allocation.
+ *
+ * The histograms are read
+ *   - programmatically: snapshot() or the histograms' summary()
+ *   - as text: dump()
+ *   - through JMX: register() adds an MXBean (GameMetricsMXBean) to the
+ *     platform MBean server, which can switch the metrics on and off too
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class GameMetrics
+{
+   /**
+    * the name of the MXBean registered by register()
+    */
+   public static final String OBJECT_NAME = "tetris:type=GameMetrics";
+
+   public static final LatencyHistogram TICK_JITTER = new LatencyHistogram("tick jitter", "ns");
+   public static final LatencyHistogram MOVED_DOWN = new LatencyHistogram("movedDown", "ns");
+   public static final LatencyHistogram KEY_TO_PAINT = new LatencyHistogram("key to paint", "ns");
+   public static final LatencyHistogram PAINT = new LatencyHistogram("paint", "ns");
+   public static final LatencyHistogram FRAME_ALLOCATION
+                                          = new LatencyHistogram("frame allocation", "bytes");
+
+   private static final LatencyHistogram[] ALL
+      = { TICK_JITTER, MOVED_DOWN, KEY_TO_PAINT, PAINT, FRAME_ALLOCATION };
+
+   // read by the places recording, before anything else
+   static volatile boolean enabled = false;
+
+   private GameMetrics() {}
+
+   /**
+    * @return boolean: true if the metrics are recorded
+    */
+   public static boolean isEnabled() {  return enabled;  }
+
+   /**
+    * turn the recording on or off (the values recorded are kept)
+    * @param boolean - true: record
+    */
+   public static void setEnabled(boolean on) {  enabled = on;  }
+
+   /**
+    * forget the values recorded so far
+    */
+   public static void reset()
+   {
+      for ( LatencyHistogram h : ALL ) h.reset();
+   }
+
+   /**
+    * @return Map<String, Summary>: the summaries of the histograms by their
+    *                               names, in the order of the dump
+    */
+   public static Map<String, LatencyHistogram.Summary> snapshot()
+   {
+      Map<String, LatencyHistogram.Summary> map = new LinkedHashMap<>();
+      for ( LatencyHistogram h : ALL ) map.put( h.getName(), h.summary() );
+      return map;
+   }
+
+   /**
+    * @return String: a table of the histograms, a line each; the times in
+    *                 microseconds, the allocations in bytes
+    */
+   public static String dump()
+   {
+      StringBuilder sb = new StringBuilder();
+      sb.append( String.format("%-24s %9s %10s %10s %10s %10s %10s %10s%n", "metric",
+                               "count", "mean", "p50", "p90", "p99", "p99.9", "max") );
+      for ( LatencyHistogram h : ALL ) {
+         LatencyHistogram.Summary s = h.summary();
+         // ns shown in microseconds
+         double scale = h.getUnit().equals("ns") ? 1e-3 : 1;
+         String name = h.getName() + ( scale == 1 ? " (" + h.getUnit() + ")" : " (us)" );
+         sb.append( String.format("%-24s %9d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                                  name, s.getCount(), s.getMean()*scale, s.getP50()*scale,
+                                  s.getP90()*scale, s.getP99()*scale, s.getP999()*scale,
+                                  s.getMax()*scale) );
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Add the MXBean of the metrics to the platform MBean server
+    * (once - it is not added again)
+    * @return ObjectName: the name of the MXBean
+    */
+   public static synchronized ObjectName register() throws JMException
+   {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if ( !server.isRegistered(name) ) server.registerMBean(new Bean(), name);
+      return name;
+   }
+
+   /*
+    * the game loop woke up (called only if enabled)
+    * @param long - the time it woke up after it was due, in nanoseconds;
+    *               < 0 if it was woken up before (not counted)
+    */
+   static void tickWoke(long lateNanos)
+   {
+      if ( lateNanos >= 0 ) TICK_JITTER.record(lateNanos);
+   }
+
+   /*
+    * @return long: the bytes allocated by the current thread so far,
+    *               -1 if not known
+    */
+   static long allocatedBytes()
+   {
+      com.sun.management.ThreadMXBean counter = Allocations.COUNTER;
+      if ( counter == null ) return -1;
+      return counter.getThreadAllocatedBytes( Thread.currentThread().getId() );
+   }
+
+   /*
+    * a paint ended (called only if enabled)
+    * @param long - System.nanoTime() when it started
+    * @param long - allocatedBytes() when it started
+    */
+   static void painted(long startNanos, long startBytes)
+   {
+      PAINT.record( System.nanoTime() - startNanos );
+      if ( startBytes >= 0 ) FRAME_ALLOCATION.record( allocatedBytes() - startBytes );
+   }
+
+   /*
+    * the allocation counter of the threads, null if the JVM has none - looked
+    * up the first time it is asked (not while the metrics are off)
+    */
+   private static class Allocations
+   {
+      static final com.sun.management.ThreadMXBean COUNTER = allocationCounter();
+   }
+
+   /*
+    * @return ThreadMXBean: the JVM's counter of the bytes allocated by a
+    *                       thread, null if there is none
+    */
+   private static com.sun.management.ThreadMXBean allocationCounter()
+   {
+      try {
+         ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+         if ( threads instanceof com.sun.management.ThreadMXBean ) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)threads;
+            if ( counter.isThreadAllocatedMemorySupported() ) {
+               counter.setThreadAllocatedMemoryEnabled(true);
+               return counter;
+            }
+         }
+      } catch ( LinkageError | UnsupportedOperationException | SecurityException e ) {
+         // no jdk.management module - the allocations are not counted
+      }
+      return null;
+   }
+
+   /*
+    * the MXBean, backed by the static metrics
+    */
+   private static class Bean implements GameMetricsMXBean
+   {
+      public boolean isEnabled() {  return GameMetrics.isEnabled();  }
+      public void setEnabled(boolean on) {  GameMetrics.setEnabled(on);  }
+      public LatencyHistogram.Summary getTickJitter() {  return TICK_JITTER.summary();  }
+      public LatencyHistogram.Summary getMovedDown() {  return MOVED_DOWN.summary();  }
+      public LatencyHistogram.Summary getKeyToPaint() {  return KEY_TO_PAINT.summary();  }
+      public LatencyHistogram.Summary getPaint() {  return PAINT.summary();  }
+      public LatencyHistogram.Summary getFrameAllocation() {  return FRAME_ALLOCATION.summary();  }
+      public String dump() {  return GameMetrics.dump();  }
+      public void reset() {  GameMetrics.reset();  }
+   }
+
+} // end of class GameMetrics
@@ -0,0 +1,49 @@
+/**
+ * The management interface of the game metrics (see GameMetrics): the
+ * histograms as composite data (count, mean, p50, p90, p99, p999, max),
+ * the switch, a text dump and a reset - for jconsole, VisualVM or any
+ * JMX client, under the name GameMetrics.OBJECT_NAME.
+ */
+
+public interface GameMetricsMXBean
+{
+   boolean isEnabled();
+
+   void setEnabled(boolean on);
+
+   /**
+    * @return Summary: how late the game loop woke up for a due update, ns
+    */
+   LatencyHistogram.Summary getTickJitter();
+
+   /**
+    * @return Summary: the time a drop down of the active tetrad took, ns
+    */
+   LatencyHistogram.Summary getMovedDown();
+
+   /**
+    * @return Summary: from a key pressed to the paint showing its command, ns
+    */
+   LatencyHistogram.Summary getKeyToPaint();
+
+   /**
+    * @return Summary: the time a paint of the panel took, ns
+    */
+   LatencyHistogram.Summary getPaint();
+
+   /**
+    * @return Summary: the bytes allocated by a paint of the panel
+    */
+   LatencyHistogram.Summary getFrameAllocation();
+
+   /**
+    * @return String: all the histograms as a text table
+    */
+   String dump();
+
+   /**
+    * forget the values recorded so far
+    */
+   void reset();
+
+} // end of interface GameMetricsMXBean
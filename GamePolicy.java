@@ -0,0 +1,23 @@
+/**
+ * A game policy decides where the active tetrad of a game goes.
+ *
+ * Used by the BatchSimulator: every time a new tetrad comes into play, the
+ * simulator asks the policy to move it (shift, rotate) through the same
+ * input methods of the GameEngine a player uses. The simulator hard drops
+ * the tetrad afterwards.
+ *
+ * A policy instance plays one game only (it may keep its own state, e.g. a
+ * random generator), so policies of games running in parallel are not shared.
+ */
+
+public interface GamePolicy
+{
+   /**
+    * Move the active tetrad of the engine to where it shall be dropped
+    * pre-condition: the game is in progress
+    *
+    * @param GameEngine - the game to play
+    */
+   void placeTetrad(GameEngine engine);
+
+} // end of interface GamePolicy
@@ -16,6 +16,7 @@
  *   - print the empty grid board on a Graphics2D with required color lightness
  *   - print a tetrad on top of the grid board with required color lightness
  *     and draw the in-motion edge lines if the tetard is in-motion
+ * The cells are drawn as pre-rendered images (see CellSpriteCache)
  */
 
 import java.util.*;
@@ -56,6 +57,16 @@ class GridBoard
     */
    protected int[][] cellArray = null;
 
+   /*
+    * the block positions of the tetrad last displayed - reused on every paint
+    */
+   private int[] tetradBlkPos = new int[8];
+
+   /*
+    * the pre-rendered cells at the current cell size
+    */
+   protected CellSpriteCache sprites = new CellSpriteCache();
+
    /**
     * The constructor.
     * @param int r - row number of the grid (r > 0)
@@ -66,6 +77,27 @@ class GridBoard
     * @param BasicStroke - the thickness of the gridline
     */
    public GridBoard(int r, int c, int x, int y, int s, BasicStroke k)
+   {
+      this(r, c, x, y, s, k, new int[r][c]);
+
+      for ( int iy = 0; iy < rowNr; iy++ ) {
+         for ( int ix = 0; ix < colNr; ix++ )
+            cellArray[iy][ix] = empty;
+      }
+   }
+
+   /**
+    * The constructor for a subclass keeping the cells its own way
+    * (see GameBoard - the rows in a ring, the empty rows shared)
+    * @param int r - row number of the grid (r > 0)
+    * @param int c - colum number of the grid (c > 0)
+    * @param int x - the left position of the grid in the tetris panel
+    * @param int t - the top position of the grid in the tetris panel
+    * @param int s - the side length of the square grid cells
+    * @param BasicStroke - the thickness of the gridline
+    * @param int[][] - the cellArray, set up by the subclass
+    */
+   protected GridBoard(int r, int c, int x, int y, int s, BasicStroke k, int[][] cells)
    {
       // top left position
       xPos = x;   yPos  = y;
@@ -73,11 +105,22 @@ class GridBoard
       cellSize = s;
       lineStroke = k;
 
-      cellArray = new int[rowNr][colNr];
-      for ( int iy = 0; iy < rowNr; iy++ ) {
-         for ( int ix = 0; ix < colNr; ix++ )
-            cellArray[iy][ix] = empty;
-      }
+      cellArray = cells;
+   }
+
+   /**
+    * Set the position of the grid in the tetris panel and its cell size.
+    * Used when the grid is created before the size of the panel is known
+    * @param int x - the left position of the grid in the tetris panel
+    * @param int t - the top position of the grid in the tetris panel
+    * @param int s - the side length of the square grid cells
+    * @param BasicStroke - the thickness of the gridline
+    */
+   public void setGeometry(int x, int y, int s, BasicStroke k)
+   {
+      xPos = x;   yPos  = y;
+      cellSize = s;
+      lineStroke = k;
    }
 
    /**
@@ -92,6 +135,18 @@ class GridBoard
     * @return int: the side length of the sqaure grid cells
     */
    public int cellSize() { return cellSize; }
+   /**
+    * @return int: the row number of the grid
+    */
+   public int rowNr() { return rowNr; }
+   /**
+    * @return int: the colum number of the grid
+    */
+   public int colNr() { return colNr; }
+   /**
+    * @return BasicStroke: the thickness of the grid lines
+    */
+   public BasicStroke lineStroke() { return lineStroke; }
 
    /**
     * display the board, use the cellArray elements value as index
@@ -101,20 +156,42 @@ class GridBoard
     * @param boolean: true - use light colors; false - use normal colors
     */
    public void displayBoard(Graphics2D g, boolean lightColor)
+   {
+      displayBoard(g, cellArray, lightColor);
+   }
+
+   /**
+    * display the board with the colors of the given cells (e.g. a snapshot
+    * of the game board) instead of this board's cellArray
+    * Only the cells inside the clip of the Graphics are drawn
+    *
+    * @param Graphics2D - where to dispaly
+    * @param int[][] - the color indexes of the cells, rowNr x colNr
+    * @param boolean: true - use light colors; false - use normal colors
+    */
+   public void displayBoard(Graphics2D g, int[][] cells, boolean lightColor)
    {  /*
        * The lined grid with the colors of the cells
        */
-      g.setStroke(lineStroke);
-
-      int px, py = yPos;
-      Color lineColor = ColorServer.getGridLineColor(lightColor);
-      for ( int r = 0; r < rowNr; r++ ) {
-         px = xPos;
-         for ( int c = 0; c < colNr; c++ ) {
-            g.setColor( ColorServer.getCellColor(cellArray[r][c], lightColor) );
-            g.fillRect( px, py, cellSize, cellSize );
-            g.setColor( lineColor );
-            g.drawRect( px, py, cellSize, cellSize );
+      // the rows and colums inside the clip (a grid line reaches into the next cell)
+      int rowFrom = 0, rowTo = rowNr, colFrom = 0, colTo = colNr;
+      Rectangle clip = g.getClipBounds();
+      if ( clip != null && cellSize > 0 ) {
+         rowFrom = Math.max( 0, (clip.y - yPos)/cellSize - 1 );
+         rowTo = Math.min( rowNr, (clip.y + clip.height - yPos)/cellSize + 2 );
+         colFrom = Math.max( 0, (clip.x - xPos)/cellSize - 1 );
+         colTo = Math.min( colNr, (clip.x + clip.width - xPos)/cellSize + 2 );
+      }
+
+      // the sprites are drawn at margin pixels up and left of the cells
+      sprites.validate(cellSize, lineStroke);
+      int margin = sprites.margin();
+      int px, py = yPos + rowFrom*cellSize;
+      for ( int r = rowFrom; r < rowTo; r++ ) {
+         px = xPos + colFrom*cellSize;
+         for ( int c = colFrom; c < colTo; c++ ) {
+            Image cell = sprites.getSprite(g, cells[r][c], lightColor, CellSpriteCache.GRID_LINE);
+            g.drawImage( cell, px - margin, py - margin, null );
             px += cellSize;
          }
          py += cellSize;
@@ -130,27 +207,22 @@ class GridBoard
     * @param boolean lightColor - the tetrad blocks in light or normal color
     * @param boolean inMotion - in case true, the edge of the blocks are shown
     *                           in-motion line color
-    * @return Point[] - the block positions of the tetrad
+    * @return int[] - the block positions of the tetrad {c0, r0, ..., c3, r3}
+    *                 (a buffer of this board, valid until the next call)
     */
-   public Point[] displayTetrad(Graphics2D g, Tetrad tetrad, boolean lightColor, boolean inMotion)
+   public int[] displayTetrad(Graphics2D g, Tetrad tetrad, boolean lightColor, boolean inMotion)
    {
-      Point[] tetradBlkPos = tetrad.getBlockPos(0);
-      if ( tetradBlkPos == null ) return null;
-
-      g.setStroke(lineStroke);
-
-      Color cellColor = ColorServer.getTetradColor(tetrad, lightColor);
-      Color lineColor = ColorServer.getMotionLineColor();
-      if ( !inMotion ) lineColor =  ColorServer.getGridLineColor(lightColor);
+      tetrad.getBlockPos(0, tetradBlkPos);
 
-      for ( Point blk : tetradBlkPos ) {
-         int px = xPos + cellSize*blk.x;
-         int py = yPos + cellSize*blk.y;
-         g.setColor( cellColor );
-         g.fillRect( px, py, cellSize, cellSize );
+      int lineStyle = inMotion ? CellSpriteCache.MOTION_LINE : CellSpriteCache.GRID_LINE;
+      sprites.validate(cellSize, lineStroke);
+      Image cell = sprites.getSprite(g, tetrad.getColorIx(), lightColor, lineStyle);
+      int margin = sprites.margin();
 
-         g.setColor( lineColor );
-         g.drawRect( px, py, cellSize, cellSize );
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         int px = xPos + cellSize*tetradBlkPos[ix];
+         int py = yPos + cellSize*tetradBlkPos[ix + 1];
+         g.drawImage( cell, px - margin, py - margin, null );
       }
 
       return tetradBlkPos;
@@ -0,0 +1,175 @@
+/**
+ * Class LatencyHistogram counts recorded values (nanoseconds, bytes) in
+ * logarithmic buckets, lock-free: any thread records, any thread reads.
+ *
+ * A power of two is split into SUB_NR buckets of the same width, so a bucket
+ * is less than 1/SUB_NR (12.5%) of its values wide - the values below SUB_NR
+ * have a bucket each. The values of 0 to Long.MAX_VALUE take 488 buckets.
+ *   - record: a bucket counter, the sum and the maximum are updated, no
+ *     allocation, no lock (AtomicLongArray, LongAdder, LongAccumulator)
+ *   - summary: the counters are read into an immutable Summary, the
+ *     percentiles are the upper bounds of their buckets (never less than
+ *     the true value). Records made while it is read may be counted or not.
+ */
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram
+{
+   // the buckets per power of two: 2^SUB_BITS
+   private static final int SUB_BITS = 3;
+   private static final int SUB_NR = 1 << SUB_BITS;
+   private static final int BUCKET_NR = (63 - SUB_BITS + 1)*SUB_NR;
+
+   private final String name;
+   private final String unit;
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKET_NR);
+   private final LongAdder sum = new LongAdder();
+   private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+   /**
+    * Constructor
+    * @param String - the name of the values (in a dump)
+    * @param String - their unit, e.g. "ns" or "bytes"
+    */
+   public LatencyHistogram(String n, String u)
+   {
+      name = n;
+      unit = u;
+   }
+
+   /**
+    * @return String: the name of the values
+    */
+   public String getName() {  return name;  }
+
+   /**
+    * @return String: the unit of the values
+    */
+   public String getUnit() {  return unit;  }
+
+   /**
+    * Count a value, called by any thread
+    * @param long - the value, a negative value counts as 0
+    */
+   public void record(long value)
+   {
+      if ( value < 0 ) value = 0;
+      counts.getAndIncrement( bucketOf(value) );
+      sum.add(value);
+      max.accumulate(value);
+   }
+
+   /**
+    * forget the values recorded so far (records made meanwhile may be lost)
+    */
+   public void reset()
+   {
+      for ( int b = 0; b < BUCKET_NR; b++ ) counts.set(b, 0);
+      sum.reset();
+      max.reset();
+   }
+
+   /**
+    * @return Summary: the count, the mean, the percentiles and the maximum
+    *                  of the values recorded so far
+    */
+   public Summary summary()
+   {
+      long[] copy = new long[BUCKET_NR];
+      long count = 0;
+      for ( int b = 0; b < BUCKET_NR; b++ ) {
+         copy[b] = counts.get(b);
+         count += copy[b];
+      }
+      long top = max.get();
+      return new Summary( count, count == 0 ? 0 : (double)sum.sum() / count,
+                          percentile(copy, count, 0.50, top),
+                          percentile(copy, count, 0.90, top),
+                          percentile(copy, count, 0.99, top),
+                          percentile(copy, count, 0.999, top), top );
+   }
+
+   /*
+    * @param long[] - the bucket counts
+    * @param long - their sum
+    * @param double - the share of the values at or below the percentile, 0 - 1
+    * @param long - the maximum value
+    * @return long: the upper bound of the bucket the percentile falls into,
+    *               at most the maximum value
+    */
+   private static long percentile(long[] copy, long count, double share, long top)
+   {
+      if ( count == 0 ) return 0;
+      long rank = (long)Math.ceil( share*count );
+      long seen = 0;
+      for ( int b = 0; b < BUCKET_NR; b++ ) {
+         seen += copy[b];
+         if ( seen >= rank ) return Math.min( top, highestOf(b) );
+      }
+      return top;
+   }
+
+   /*
+    * @param long - a value >= 0
+    * @return int: the bucket of the value
+    */
+   static int bucketOf(long value)
+   {
+      if ( value < SUB_NR ) return (int)value;
+      int exp = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_NR - 1);
+      return (exp - SUB_BITS + 1)*SUB_NR + sub;
+   }
+
+   /*
+    * @param int - a bucket
+    * @return long: the highest value in the bucket
+    */
+   static long highestOf(int bucket)
+   {
+      if ( bucket < SUB_NR ) return bucket;
+      int exp = bucket/SUB_NR + SUB_BITS - 1;
+      long lowest = (long)(SUB_NR + bucket % SUB_NR) << (exp - SUB_BITS);
+      return lowest + (1L << (exp - SUB_BITS)) - 1;
+   }
+
+   /**
+    * The values recorded, at the time the summary was taken; as an
+    * attribute of an MXBean (GameMetricsMXBean) it shows as composite data
+    */
+   public static class Summary
+   {
+      private final long count;
+      private final double mean;
+      private final long p50;
+      private final long p90;
+      private final long p99;
+      private final long p999;
+      private final long max;
+
+      @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+      public Summary(long c, double m, long p50, long p90, long p99, long p999, long mx)
+      {
+         count = c;
+         mean = m;
+         this.p50 = p50;
+         this.p90 = p90;
+         this.p99 = p99;
+         this.p999 = p999;
+         max = mx;
+      }
+
+      public long getCount() {  return count;  }
+      public double getMean() {  return mean;  }
+      public long getP50() {  return p50;  }
+      public long getP90() {  return p90;  }
+      public long getP99() {  return p99;  }
+      public long getP999() {  return p999;  }
+      public long getMax() {  return max;  }
+   }
+
+} // end of class LatencyHistogram
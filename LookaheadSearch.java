@@ -0,0 +1,579 @@
+/**
+ * Class LookaheadSearch chooses the placement of the active tetrad by looking
+ * ahead at the tetrads known to come next: the stand-by tetrad and the preview.
+ *
+ * It is a beam search, one level per tetrad:
+ *   - level 0: all placements of the active tetrad on the board
+ *     (PlacementEnumerator), each scored by the BoardEvaluator
+ *   - level d: all placements of the d-th upcoming tetrad on the boards of
+ *     the nodes kept from level d - 1
+ *   - of every level only the beam width best nodes are kept (pruning); a
+ *     node remembers the placement of the active tetrad it started from
+ * The score of a node is the evaluation of its last placement plus the
+ * lines removed by the placements before it (weighted as by the evaluator).
+ * The placement of the active tetrad leading to the best node of the last
+ * level completed is the choice.
+ *
+ * The nodes of a level are expanded in parallel on a ForkJoinPool, split
+ * into tasks of a few nodes: every worker thread has its own enumerator and
+ * evaluator, the boards of the nodes are only read. The boards of the nodes
+ * kept are built in parallel too.
+ *
+ * Different orders of placements often give the same board. With a
+ * transposition table set, the evaluations are cached by the Zobrist hash of
+ * the board with the placement (GameBoard.getHash), shared by all threads:
+ * a board evaluated already is not evaluated again.
+ *
+ * A search has a time budget: a level not completed in time is dropped and
+ * the choice is made from the level before (level 0 is always completed).
+ *
+ * The statistics of the last search (nodes evaluated, time, nodes per second,
+ * levels completed) are kept, and summed over all searches.
+ *
+ * A search instance is used by one thread at a time.
+ *
+ * The main method measures the nodes per second of the search for a growing
+ * number of threads: the same games (the same seed, no time budget, so the
+ * same searches) are played with pools of 1, 2, 4, ... threads:
+ *    java LookaheadSearch [placements [depth [width [threads [seed [tableMB]]]]]]
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LookaheadSearch
+{
+   private static final long NANOS_PER_MILLI = 1000000L;
+   // the nodes expanded (or built) by a task before it splits
+   private static final int NODES_PER_TASK = 2;
+
+   // the size of the boards
+   private int rowNr;
+   private int colNr;
+
+   private ForkJoinPool pool;
+   private int maxDepth;
+   private int beamWidth;
+   private long budgetNanos;
+
+   // the tools of the worker threads
+   private final BoardEvaluator evaluator;
+   private final double lineWeight;
+   private final ThreadLocal<PlacementEnumerator> enumerators;
+   private final ThreadLocal<BoardEvaluator> evaluators;
+   // the cache of the evaluations, null if none
+   private volatile TranspositionTable table = null;
+
+   // the statistics: the last search and the sums of all searches
+   private long lastNodes = 0;
+   private long lastNanos = 0;
+   private int lastDepth = 0;
+   private long totalNodes = 0;
+   private long totalNanos = 0;
+   private long searches = 0;
+
+   /*
+    * a node of the search: the board after its placements, the score, the
+    * index of the placement of the active tetrad it started from
+    */
+   private static class Node
+   {
+      final GameBoard board;
+      final double score;
+      // the lines removed by the placements so far
+      final int lines;
+      final int root;
+
+      Node(GameBoard b, double s, int l, int rt)
+      {
+         board = b;
+         score = s;
+         lines = l;
+         root = rt;
+      }
+   }
+
+   /*
+    * the placements found by expanding a node: the block positions and the
+    * scores, in primitive arrays
+    */
+   private static class Children
+   {
+      int count = 0;
+      int[] pos;
+      double[] score;
+      int[] lines;
+
+      Children(int capacity)
+      {
+         pos = new int[8*capacity];
+         score = new double[capacity];
+         lines = new int[capacity];
+      }
+
+      void add(int[] blkPos, double s, int l)
+      {
+         System.arraycopy(blkPos, 0, pos, 8*count, 8);
+         score[count] = s;
+         lines[count] = l;
+         count++;
+      }
+   }
+
+   /**
+    * Constructor
+    * @param int row - the row number of the boards
+    * @param int col - the colum number of the boards
+    * @param BoardEvaluator - scores the placements (copied for every worker thread)
+    * @param ForkJoinPool - the pool expanding the nodes, null for the common pool
+    */
+   public LookaheadSearch(int row, int col, BoardEvaluator eval, ForkJoinPool p)
+   {
+      rowNr = row;
+      colNr = col;
+      evaluator = eval;
+      lineWeight = eval.getLineWeight();
+      pool = ( p == null ) ? ForkJoinPool.commonPool() : p;
+      maxDepth = GameEngine.MAX_PREVIEW_NR + 1;
+      beamWidth = 64;
+      budgetNanos = 50*NANOS_PER_MILLI;
+
+      enumerators = ThreadLocal.withInitial( () -> new PlacementEnumerator(rowNr, colNr) );
+      evaluators = ThreadLocal.withInitial( () -> evaluator.copy() );
+   }
+
+   /**
+    * @param int: the number of tetrads to look at, the active tetrad included
+    *             (1 - the active tetrad only); limited by the tetrads known
+    */
+   public void setMaxDepth(int depth) {  maxDepth = Math.max(1, depth);  }
+
+   /**
+    * @param int: the number of nodes kept on every level
+    */
+   public void setBeamWidth(int width) {  beamWidth = Math.max(1, width);  }
+
+   /**
+    * @param long: the time a search may take, in milliseconds
+    */
+   public void setTimeBudget(long millis) {  budgetNanos = millis*NANOS_PER_MILLI;  }
+
+   /**
+    * @param TranspositionTable: the cache of the evaluations (may be shared
+    *                            by searches of the same evaluator and board
+    *                            size), null - none; not used on boards of
+    *                            more than GameBoard.HASHED_ROW_NR rows
+    */
+   public void setTranspositionTable(TranspositionTable t)
+   {
+      // the hash of a higher board is not unique - a hit could be another board
+      table = rowNr <= GameBoard.HASHED_ROW_NR ? t : null;
+   }
+
+   /**
+    * Choose the placement of the active tetrad
+    * @param GameBoard - the board, not modified
+    * @param Tetrad - the active tetrad on the board, not modified
+    * @param int[] - the types of the tetrads coming next, in order (stand-by first)
+    * @param int[] - the buffer to receive the block positions of the placement
+    *                chosen {c0, r0, ..., c3, r3}
+    * @return boolean: false if the active tetrad cannot be placed
+    */
+   public boolean search(GameBoard board, Tetrad tetrad, int[] upcoming, int[] choice)
+   {
+      long start = System.nanoTime();
+      long deadline = start + budgetNanos;
+
+      // level 0: the placements of the active tetrad, on this thread
+      PlacementEnumerator enumerator = enumerators.get();
+      BoardEvaluator eval = evaluators.get();
+      int rootNr = enumerator.enumerate(board, tetrad);
+      if ( rootNr == 0 ) return false;
+
+      Children roots = new Children(rootNr);
+      int[] blkPos = new int[8];
+      for ( int ix = 0; ix < rootNr; ix++ ) {
+         enumerator.getBlockPos(ix, blkPos);
+         long value = evaluate(eval, board, blkPos);
+         roots.add(blkPos, TranspositionTable.score(value), TranspositionTable.lines(value));
+      }
+      long nodes = rootNr;
+
+      Node[] beam = select( new Children[]{ roots }, new Node[]{ new Node(board, 0, 0, -1) },
+                            tetrad.getTypeIx(), true );
+      int depth = 1;
+
+      // the upcoming tetrads, level by level while there is time
+      int levels = Math.min(maxDepth, 1 + upcoming.length);
+      for ( int level = 1; level < levels && System.nanoTime() - deadline < 0; level++ ) {
+         int type = upcoming[level - 1];
+         Children[] expanded = new Children[beam.length];
+         pool.invoke( new ExpandTask(0, beam.length, beam, expanded, type, deadline) );
+
+         // a node not expanded in time - the level is dropped
+         int count = 0;
+         for ( Children children : expanded ) {
+            if ( children == null ) {
+               count = -1;
+               break;
+            }
+            count += children.count;
+         }
+         if ( count < 0 ) break;
+         nodes += count;
+         // the tetrad cannot enter any board - the game would be over
+         if ( count == 0 ) break;
+
+         beam = select(expanded, beam, type, false);
+         depth = level + 1;
+      }
+
+      // the best node of the last level completed (the beam is sorted)
+      System.arraycopy(roots.pos, 8*beam[0].root, choice, 0, 8);
+
+      lastNodes = nodes;
+      lastNanos = System.nanoTime() - start;
+      lastDepth = depth;
+      totalNodes += nodes;
+      totalNanos += lastNanos;
+      searches++;
+      return true;
+   }
+
+   /*
+    * expands the nodes [from, to) of the beam: the placements of a tetrad
+    * type on their boards, scored; splits if there are too many nodes
+    */
+   private class ExpandTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private int from;
+      private int to;
+      private Node[] beam;
+      private Children[] expanded;
+      private int type;
+      private long deadline;
+
+      ExpandTask(int f, int t, Node[] b, Children[] e, int tx, long d)
+      {
+         from = f;   to = t;
+         beam = b;
+         expanded = e;
+         type = tx;
+         deadline = d;
+      }
+
+      protected void compute()
+      {
+         if ( to - from > NODES_PER_TASK ) {
+            int mid = (from + to) >>> 1;
+            invokeAll( new ExpandTask(from, mid, beam, expanded, type, deadline),
+                       new ExpandTask(mid, to, beam, expanded, type, deadline) );
+            return;
+         }
+
+         PlacementEnumerator enumerator = enumerators.get();
+         BoardEvaluator eval = evaluators.get();
+         int[] blkPos = new int[8];
+         for ( int n = from; n < to; n++ ) {
+            // out of time - the node stays null
+            if ( System.nanoTime() - deadline >= 0 ) return;
+
+            Node node = beam[n];
+            int count = enumerator.enumerate(node.board, type);
+            Children children = new Children(count);
+            double lineValue = lineWeight*node.lines;
+            for ( int ix = 0; ix < count; ix++ ) {
+               enumerator.getBlockPos(ix, blkPos);
+               long value = evaluate(eval, node.board, blkPos);
+               children.add( blkPos, TranspositionTable.score(value) + lineValue,
+                             node.lines + TranspositionTable.lines(value) );
+            }
+            expanded[n] = children;
+         }
+      }
+   }
+
+   /*
+    * the evaluation of a placement, from the transposition table if there
+    * @return long: the score and the lines removed (TranspositionTable.pack)
+    */
+   private long evaluate(BoardEvaluator eval, GameBoard board, int[] blkPos)
+   {
+      TranspositionTable t = table;
+      long key = 0;
+      if ( t != null ) {
+         key = board.getHash() ^ GameBoard.blocksHash(blkPos);
+         long value = t.probe(key);
+         if ( value != TranspositionTable.MISS ) return value;
+      }
+      long value = TranspositionTable.pack( eval.evaluate(board, blkPos), eval.getLines() );
+      if ( t != null ) t.store(key, value);
+      return value;
+   }
+
+   /*
+    * Keep the beam width best children and build their boards
+    * @param Children[] - the children of the nodes
+    * @param Node[] - the nodes expanded
+    * @param int - the type of the tetrad placed
+    * @param boolean - true: the children are the placements of the active
+    *                  tetrad (the root of a child is its index)
+    * @return Node[]: the nodes kept, the best first
+    */
+   private Node[] select(Children[] expanded, Node[] parents, int type, boolean rootLevel)
+   {
+      int total = 0;
+      for ( Children children : expanded ) total += children.count;
+      int keep = Math.min(beamWidth, total);
+
+      /*
+       * the best children, as (node, child) pairs: a heap of the keep best
+       * found so far, the worst on top (of equal scores the first found is kept)
+       */
+      long[] kept = new long[keep];
+      int size = 0;
+      for ( int p = 0; p < expanded.length; p++ ) {
+         for ( int ix = 0; ix < expanded[p].count; ix++ ) {
+            long pair = ((long)p << 32) | ix;
+            if ( size < keep ) {
+               kept[size] = pair;
+               siftUp(kept, size++, expanded);
+            } else if ( score(expanded, pair) > score(expanded, kept[0]) ) {
+               kept[0] = pair;
+               siftDown(kept, size, expanded);
+            }
+         }
+      }
+      // the best first: take the worst off the heap to the end
+      for ( int end = size - 1; end > 0; end-- ) {
+         long worst = kept[0];
+         kept[0] = kept[end];
+         kept[end] = worst;
+         siftDown(kept, end, expanded);
+      }
+
+      Node[] beam = new Node[keep];
+      pool.invoke( new BuildTask(0, keep, kept, expanded, parents, beam, type, rootLevel) );
+      return beam;
+   }
+
+   private static double score(Children[] expanded, long pair)
+   {
+      return expanded[(int)(pair >>> 32)].score[(int)pair];
+   }
+
+   /*
+    * @return boolean: true if the pair a is worse than the pair b
+    *                  (a lower score, or the same score found later)
+    */
+   private static boolean worse(Children[] expanded, long a, long b)
+   {
+      double sa = score(expanded, a), sb = score(expanded, b);
+      return sa < sb || (sa == sb && a > b);
+   }
+
+   private static void siftUp(long[] heap, int ix, Children[] expanded)
+   {
+      while ( ix > 0 ) {
+         int parent = (ix - 1) >>> 1;
+         if ( !worse(expanded, heap[ix], heap[parent]) ) return;
+         long swap = heap[ix];   heap[ix] = heap[parent];   heap[parent] = swap;
+         ix = parent;
+      }
+   }
+
+   private static void siftDown(long[] heap, int size, Children[] expanded)
+   {
+      int ix = 0;
+      while ( true ) {
+         int child = 2*ix + 1;
+         if ( child >= size ) return;
+         if ( child + 1 < size && worse(expanded, heap[child + 1], heap[child]) ) child++;
+         if ( !worse(expanded, heap[child], heap[ix]) ) return;
+         long swap = heap[ix];   heap[ix] = heap[child];   heap[child] = swap;
+         ix = child;
+      }
+   }
+
+   /*
+    * builds the boards of the nodes kept [from, to): the board of the
+    * parent with the placement, the full rows removed
+    */
+   private class BuildTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private int from;
+      private int to;
+      private long[] kept;
+      private Children[] expanded;
+      private Node[] parents;
+      private Node[] beam;
+      private int type;
+      private boolean rootLevel;
+
+      BuildTask(int f, int t, long[] k, Children[] e, Node[] p, Node[] b, int tx, boolean root)
+      {
+         from = f;   to = t;
+         kept = k;
+         expanded = e;
+         parents = p;
+         beam = b;
+         type = tx;
+         rootLevel = root;
+      }
+
+      protected void compute()
+      {
+         if ( to - from > NODES_PER_TASK ) {
+            int mid = (from + to) >>> 1;
+            invokeAll( new BuildTask(from, mid, kept, expanded, parents, beam, type, rootLevel),
+                       new BuildTask(mid, to, kept, expanded, parents, beam, type, rootLevel) );
+            return;
+         }
+
+         int[] blkPos = new int[8];
+         for ( int k = from; k < to; k++ ) {
+            int p = (int)(kept[k] >>> 32);
+            int ix = (int)kept[k];
+            Children children = expanded[p];
+            Node parent = parents[p];
+
+            GameBoard board = new GameBoard(rowNr, colNr);
+            board.copyFrom(parent.board);
+            System.arraycopy(children.pos, 8*ix, blkPos, 0, 8);
+            board.placeBlocks(blkPos, 1 + type);
+            board.clearFullRows();
+            beam[k] = new Node( board, children.score[ix], children.lines[ix],
+                                rootLevel ? ix : parent.root );
+         }
+      }
+   }
+
+   /**
+    * @return long: the nodes evaluated by the last search
+    */
+   public long getLastNodes() {  return lastNodes;  }
+
+   /**
+    * @return long: the time of the last search, in nanoseconds
+    */
+   public long getLastNanos() {  return lastNanos;  }
+
+   /**
+    * @return int: the levels completed by the last search (1 - the active tetrad only)
+    */
+   public int getLastDepth() {  return lastDepth;  }
+
+   /**
+    * @return double: the nodes evaluated per second, over all searches
+    */
+   public double getNodesPerSecond()
+   {
+      return totalNanos == 0 ? 0 : totalNodes*1e9/totalNanos;
+   }
+
+   /**
+    * @return String: the statistics over all searches
+    */
+   public String toString()
+   {
+      return String.format("%d searches, %d nodes, %.0f nodes/s, last: %d levels %d nodes %.2f ms",
+                           searches, totalNodes, getNodesPerSecond(),
+                           lastDepth, lastNodes, lastNanos/1e6);
+   }
+
+   /**
+    * A policy playing the games of a BatchSimulator with a look-ahead search
+    */
+   public static class LookaheadPolicy implements GamePolicy
+   {
+      private LookaheadSearch search;
+      private PlacementEnumerator enumerator = null;
+      private int[] choice = new int[8];
+      private int[] pos = new int[8];
+
+      /**
+       * @param LookaheadSearch - the search choosing the placements (this policy's only)
+       */
+      public LookaheadPolicy(LookaheadSearch s) {  search = s;  }
+
+      public void placeTetrad(GameEngine engine)
+      {
+         GameBoard board = engine.getGameBoard();
+         if ( enumerator == null ) enumerator = new PlacementEnumerator(board.rowNr(), board.colNr());
+
+         int[] upcoming = new int[engine.getPreviewNr()];
+         upcoming[0] = engine.getNextTetrad().getTypeIx();
+         for ( int ix = 1; ix < upcoming.length; ix++ ) {
+            upcoming[ix] = engine.getPreviewTetrad(ix - 1).getTypeIx();
+         }
+         if ( !search.search(board, engine.getCurrTetrad(), upcoming, choice) ) return;
+
+         // the moves to the placement chosen
+         int count = enumerator.enumerate(board, engine.getCurrTetrad());
+         for ( int ix = 0; ix < count; ix++ ) {
+            enumerator.getBlockPos(ix, pos);
+            if ( !Arrays.equals(pos, choice) ) continue;
+            for ( int mv : enumerator.getPath(ix) ) {
+               switch ( mv ) {
+                  case PlacementEnumerator.MOVE_LEFT:   engine.shift(-1);    break;
+                  case PlacementEnumerator.MOVE_RIGHT:  engine.shift(1);     break;
+                  case PlacementEnumerator.MOVE_ROTATE: engine.rotate();     break;
+                  default:                              engine.movedDown();  break;
+               }
+            }
+            return;
+         }
+      }
+   }
+
+   /**
+    * Play the same games with 1, 2, 4, ... threads and print the nodes per second
+    * @param String[] - [placements [depth [width [threads [seed [tableMB]]]]]]
+    *                   (tableMB: the size of a transposition table, 0 - none)
+    */
+   public static void main(String[] args)
+   {
+      long placements = args.length > 0 ? Long.parseLong(args[0]) : 200;
+      int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+      int width = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+      int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+                                       : Runtime.getRuntime().availableProcessors();
+      long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+      int tableMB = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+      int rowNr = 23, colNr = 16;
+      BatchSimulator simulator = new BatchSimulator(rowNr, colNr, placements);
+      simulator.setPreviewNr( Math.max(1, Math.min(depth - 1, GameEngine.MAX_PREVIEW_NR)) );
+      double single = 0;
+      // thread number 0: a game on 1 thread first, not shown, to warm up the
+      // JIT - the 1 thread game measured is the base of the speedups
+      for ( int threads = 0; threads <= maxThreads; threads = Math.max(1, 2*threads) ) {
+         ForkJoinPool pool = new ForkJoinPool( Math.max(1, threads) );
+         try {
+            LookaheadSearch search = new LookaheadSearch(rowNr, colNr, BoardEvaluator.standard(), pool);
+            search.setMaxDepth(depth);
+            search.setBeamWidth(width);
+            // no time limit: the same searches for every thread number
+            search.setTimeBudget(Long.MAX_VALUE/NANOS_PER_MILLI);
+            TranspositionTable table = ( tableMB > 0 ) ? new TranspositionTable(tableMB) : null;
+            search.setTranspositionTable(table);
+
+            GameEngine engine = simulator.play(seed, new LookaheadPolicy(search));
+            if ( threads == 0 ) continue;
+            double rate = search.getNodesPerSecond();
+            if ( threads == 1 ) single = rate;
+            System.out.println(String.format("%2d threads: %.0f nodes/s, speedup %.2f, scores %d, %d placements",
+                                             threads, rate, rate/single,
+                                             engine.getScores(), engine.getPlacements()));
+            if ( table != null ) System.out.println("    table: " + table);
+         } finally {
+            pool.shutdown();
+         }
+      }
+   }
+
+} // end of class LookaheadSearch
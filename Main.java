@@ -69,23 +69,76 @@
  */
 
 import java.awt.Frame;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import javax.management.JMException;
 
 /**
  * The Main class creates a not resizable Frame and
  * adds the Tetris instance to the Frame
+ *
+ * With -sim as the first argument no Frame is created: a batch of games is
+ * simulated headless by the BatchSimulator (the other arguments are passed on)
+ * With -replay file as the first arguments no Frame is created: the recorded
+ * games are played again headless by the ReplayPlayer, the result printed
+ *
+ * Options of the game (in any order)
+ *   -active  the game loop paints the changes of the game on the screen
+ *            itself (active rendering) instead of asking AWT to repaint them
+ *   -raster  the game board pixels are written straight into an image buffer
+ *   -auto    a bot plays the game (autoplay, turned on/off with the A key)
+ *   -lookahead  the bot looks ahead at the stand-by tetrad and the preview
+ *   -record file  the games are recorded to the file (see ReplayRecorder)
+ *   -save file    the game is resumed from the file (if there) and saved to
+ *                 it when the program ends (see GameEngine.save); not with
+ *                 -record (a recording starts with a new game)
+ *   -rows n, -cols n  the size of the game board (23 x 16 by default); the
+ *                 cells get smaller for a large board to fit on the screen
+ *   -metrics the latencies of the game loop and the paints are recorded,
+ *            shown over JMX and printed when the program ends (see GameMetrics)
  */
 public class Main
 {
    /**
     *  The main method, create the Fram and Tetris
     */
-   public static void main(String[] args)
+   public static void main(String[] args) throws IOException
    {
+      if ( args.length > 0 && args[0].equals("-sim") ) {
+         BatchSimulator.main( java.util.Arrays.copyOfRange(args, 1, args.length) );
+         return;
+      }
+      if ( args.length > 1 && args[0].equals("-replay") ) {
+         ReplayPlayer.main( java.util.Arrays.copyOfRange(args, 1, args.length) );
+         return;
+      }
+
       // the real cell size will be caclulated by Tetris
       int cellSize = 22;
       int colNr = 16;
       int rowNr = 23;
       int infoRowNr = 5;
+      // the stand-by tetrad and 4 more
+      int previewNr = 5;
+      String saveFile = null;
+      String recordFile = null;
+      for ( int ix = 0; ix + 1 < args.length; ix++ ) {
+         if ( args[ix].equals("-rows") ) rowNr = Integer.parseInt(args[++ix]);
+         else if ( args[ix].equals("-cols") ) colNr = Integer.parseInt(args[++ix]);
+         else if ( args[ix].equals("-save") ) saveFile = args[++ix];
+         else if ( args[ix].equals("-record") ) recordFile = args[++ix];
+      }
+      if ( saveFile != null && recordFile != null ) {
+         // a replay starts with a new engine, a resumed game is in the middle
+         System.err.println("-record and -save cannot be used together: a recording starts with a new game");
+         return;
+      }
+      // at most about 1000 pixels high
+      cellSize = Math.max( 1, Math.min(cellSize, 1000/(rowNr + infoRowNr + 1)) );
 
       Frame frame = new Frame("Tetris");
       // plus 1 to add boundary for the game board
@@ -93,8 +146,82 @@ public class Main
       frame.setLocation( 166, 6 );
       // not allow to resize for now
       frame.setResizable( false );
-      frame.add( new Tetris(rowNr, colNr, infoRowNr) );
+      GameEngine resumed = saveFile == null ? null : resume(saveFile, rowNr, colNr);
+      Tetris tetris = resumed == null ? new Tetris(rowNr, colNr, infoRowNr, previewNr)
+                                      : new Tetris(resumed, infoRowNr);
+      if ( saveFile != null ) suspendOnExit(tetris, saveFile);
+      if ( recordFile != null ) record(tetris, recordFile);
+      boolean autoPlay = false;
+      for ( String arg : args ) {
+         if ( arg.equals("-lookahead") ) tetris.setAutoLookahead(true);
+         if ( arg.equals("-metrics") ) recordMetrics();
+         if ( arg.equals("-active") ) tetris.setActiveRendering(true);
+         if ( arg.equals("-raster") ) tetris.setRasterRendering(true);
+         if ( arg.equals("-auto") ) autoPlay = true;
+      }
+      // after all the options, so the bot starts with them (e.g. -lookahead)
+      if ( autoPlay ) tetris.setAutoPlay(true);
+      frame.add( tetris );
       frame.setVisible( true );
    }
 
+   /*
+    * record the games of the tetris to a file, closed when the program ends
+    */
+   private static void record(Tetris tetris, String file) throws IOException
+   {
+      FileChannel channel = FileChannel.open( Paths.get(file), StandardOpenOption.CREATE,
+                                              StandardOpenOption.TRUNCATE_EXISTING,
+                                              StandardOpenOption.WRITE );
+      ReplayRecorder recorder = tetris.record(channel);
+      Runtime.getRuntime().addShutdownHook( new Thread(recorder::close) );
+   }
+
+   /*
+    * record the metrics of the game, printed when the program ends
+    */
+   private static void recordMetrics()
+   {
+      GameMetrics.setEnabled(true);
+      try {
+         GameMetrics.register();
+      } catch ( JMException e ) {
+         System.err.println("the metrics are not shown over JMX: " + e);
+      }
+      Runtime.getRuntime().addShutdownHook( new Thread( () -> System.err.print( GameMetrics.dump() ) ) );
+   }
+
+   /*
+    * the game saved in the file, null if none (or not of the board size)
+    */
+   private static GameEngine resume(String file, int rowNr, int colNr) throws IOException
+   {
+      if ( !Files.exists( Paths.get(file) ) ) return null;
+      try {
+         GameEngine engine = GameEngine.restore( ByteBuffer.wrap( Files.readAllBytes( Paths.get(file) ) ) );
+         GameBoard board = engine.getGameBoard();
+         // the frame is sized for the board
+         return board.rowNr() == rowNr && board.colNr() == colNr ? engine : null;
+      } catch ( IllegalArgumentException e ) {
+         System.err.println("the game saved in " + file + " is not resumed: " + e.getMessage());
+         return null;
+      }
+   }
+
+   /*
+    * save the game of the tetris to a file when the program ends
+    */
+   private static void suspendOnExit(Tetris tetris, String file)
+   {
+      Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+         try ( FileChannel channel = FileChannel.open( Paths.get(file), StandardOpenOption.CREATE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                                       StandardOpenOption.WRITE ) ) {
+            tetris.suspend(channel);
+         } catch ( IOException | InterruptedException e ) {
+            System.err.println("the game is not saved: " + e);
+         }
+      } ) );
+   }
+
 } //end of class Main
\ No newline at end of file
@@ -0,0 +1,341 @@
+/**
+ * Class PlacementEnumerator finds every resting position a tetrad can reach
+ * on a game board - the placements a player (or a bot) can choose from.
+ *
+ * The search is a breadth first search over the states (orientation, colum,
+ * row) of the tetrad, from its spawn position (as the engine sets the active
+ * tetrad) or from a given tetrad. The moves are the ones of the game: shift
+ * left or right, rotate clockwise and drop down one row, checked with the
+ * collision rules of the GameBoard. A state from which the tetrad cannot drop
+ * down is a resting position.
+ *
+ * The search goes row by row: all states of a row reachable by shifts and
+ * rotations are visited before the tetrad drops to the next row. So a path
+ * does all the moves it can before dropping - the tetrad is moved into place
+ * at the top and dropped straight down whenever possible (a bot does not
+ * have to wait for the tetrad to drop, it can hard drop).
+ *
+ * The states are numbered (orientation, row, colum) with the 4*4 grid of the
+ * tetrad allowed 3 colums/rows out of the board, and the states visited are
+ * kept in a bitset. The search remembers how every state was reached, such
+ * that the moves to a placement can be given back (getPath).
+ *
+ * Some orientations of a type cover the same cells (O-type: all four, I, S
+ * and Z-types: two by two), maybe at an offset within the 4*4 grid. Resting
+ * positions covering the same cells are one placement: the first one found.
+ *
+ * The placements are returned in primitive arrays, owned by the enumerator
+ * and overwritten by the next search. An enumerator is not thread safe - one
+ * per thread, reused for any number of boards of its size.
+ */
+
+import java.util.*;
+
+public class PlacementEnumerator
+{
+   /*
+    * the moves of a path
+    */
+   public static final int MOVE_LEFT = 0;
+   public static final int MOVE_RIGHT = 1;
+   public static final int MOVE_ROTATE = 2;
+   public static final int MOVE_DOWN = 3;
+
+   // the 4*4 grid of a tetrad may be up to 3 colums/rows out of the board
+   private static final int MARGIN = 3;
+
+   /*
+    * the orientations covering the same cells:
+    *   the orientation rt of type tx at (c, r) covers the same cells as the
+    *   orientation canonRot[tx][rt] at (c + canonDc[tx][rt], r + canonDr[tx][rt])
+    */
+   private static final int[][] canonRot = new int[Tetrad.TYPE_NR][4];
+   private static final int[][] canonDc = new int[Tetrad.TYPE_NR][4];
+   private static final int[][] canonDr = new int[Tetrad.TYPE_NR][4];
+   static {
+      for ( int tx = 0; tx < Tetrad.TYPE_NR; tx++ ) {
+         for ( int rt = 0; rt < 4; rt++ ) {
+            int[] offsets = Tetrad.getBlockOffsets(tx, rt);
+            canonRot[tx][rt] = rt;
+            for ( int prev = 0; prev < rt; prev++ ) {
+               // the same cells: the same offsets moved by (dc, dr), in the same order
+               int[] prevOffsets = Tetrad.getBlockOffsets(tx, prev);
+               int dc = offsets[0] - prevOffsets[0];
+               int dr = offsets[1] - prevOffsets[1];
+               boolean same = true;
+               for ( int ix = 0; ix < 8 && same; ix += 2 ) {
+                  same = offsets[ix] - prevOffsets[ix] == dc && offsets[ix + 1] - prevOffsets[ix + 1] == dr;
+               }
+               if ( same ) {
+                  canonRot[tx][rt] = prev;
+                  canonDc[tx][rt] = dc;
+                  canonDr[tx][rt] = dr;
+                  break;
+               }
+            }
+         }
+      }
+   }
+
+   // the size of the boards
+   private int rowNr;
+   private int colNr;
+   // the positions of the 4*4 grid: colSpan x rowSpan for every orientation
+   private int colSpan;
+   private int rowSpan;
+
+   /*
+    * the search
+    *  - visited: the states reached; landed: the placements found (canonical states)
+    *  - queue: the states of the row to visit, in the order reached;
+    *    drops: the states of the next row reached by dropping
+    *  - from/move: the state a state was reached from (-1 for the start) and the move
+    */
+   private long[] visited;
+   private long[] landed;
+   private int[] queue;
+   private int[] drops;
+   private int[] from;
+   private byte[] move;
+
+   // the board searched and a block positions buffer
+   private GameBoard board = null;
+   private int[] pos = new int[8];
+
+   /*
+    * the placements found: the state, orientation and (colum, row) of the
+    * 4*4 grid of the tetrad (as Tetrad.setPos) resting there
+    */
+   private int count = 0;
+   private int typeIx = 0;
+   private int[] states;
+   private int[] rotations;
+   private int[] columns;
+   private int[] rows;
+
+   /**
+    * Constructor
+    * @param int row - the row number of the boards to search
+    * @param int col - the colum number of the boards to search
+    */
+   public PlacementEnumerator(int row, int col)
+   {
+      rowNr = row;
+      colNr = col;
+      colSpan = colNr + MARGIN;
+      rowSpan = rowNr + MARGIN;
+      int stateNr = 4*rowSpan*colSpan;
+
+      visited = new long[(stateNr + 63) >>> 6];
+      landed = new long[(stateNr + 63) >>> 6];
+      queue = new int[stateNr];
+      drops = new int[stateNr];
+      from = new int[stateNr];
+      move = new byte[stateNr];
+
+      states = new int[stateNr];
+      rotations = new int[stateNr];
+      columns = new int[stateNr];
+      rows = new int[stateNr];
+   }
+
+   /**
+    * Find the placements of a tetrad type entering the board: from the
+    * position the engine gives a new active tetrad, in its original orientation
+    * @param GameBoard - the board (rowNr x colNr), not modified
+    * @param int - the type of the tetrad, 0 <= tx < Tetrad.TYPE_NR
+    * @return int: the number of placements found (0 if the tetrad cannot enter)
+    */
+   public int enumerate(GameBoard b, int tx)
+   {
+      // as GameEngine.setAsCurrTetrad: the top blocks on the first row
+      int[] offsets = Tetrad.getBlockOffsets(tx, 0);
+      return enumerate(b, tx, 0, (colNr - 4)/2, -offsets[1]);
+   }
+
+   /**
+    * Find the placements of a tetrad from its current position and orientation
+    * @param GameBoard - the board (rowNr x colNr), not modified
+    * @param Tetrad - the tetrad on the board, not modified
+    * @return int: the number of placements found (0 if the tetrad is not on empty cells)
+    */
+   public int enumerate(GameBoard b, Tetrad tetrad)
+   {
+      tetrad.getBlockPos(0, pos);
+      int[] offsets = Tetrad.getBlockOffsets(tetrad.getTypeIx(), tetrad.getRotation());
+      return enumerate(b, tetrad.getTypeIx(), tetrad.getRotation(),
+                       pos[0] - offsets[0], pos[1] - offsets[1]);
+   }
+
+   /*
+    * the breadth first search from the state (rt, c, r)
+    */
+   private int enumerate(GameBoard b, int tx, int rt, int c, int r)
+   {
+      if ( b.rowNr() != rowNr || b.colNr() != colNr )
+         throw new IllegalArgumentException("board " + b.rowNr() + "x" + b.colNr()
+                                            + " searched by an enumerator for " + rowNr + "x" + colNr);
+      board = b;
+      typeIx = tx;
+      count = 0;
+      Arrays.fill(visited, 0L);
+      Arrays.fill(landed, 0L);
+
+      setPos(rt, c, r);
+      if ( !board.isValidAndEmpty(pos) ) return 0;
+
+      int head = 0, tail = 0, dropNr = 0;
+      int start = state(rt, c, r);
+      visit(start, -1, 0);
+      queue[tail++] = start;
+
+      while ( head < tail || dropNr > 0 ) {
+         if ( head == tail ) {
+            // the row is done - the next row, from the states dropped to
+            int[] swap = queue;
+            queue = drops;
+            drops = swap;
+            head = 0;
+            tail = dropNr;
+            dropNr = 0;
+         }
+         int st = queue[head++];
+         c = st % colSpan - MARGIN;
+         r = (st / colSpan) % rowSpan - MARGIN;
+         rt = st / (colSpan*rowSpan);
+
+         // the states visited already are not checked again
+         setPos(rt, c, r);
+         if ( !isSet(visited, st - 1) && board.isValidShift(pos, -1) )
+            tail = reach(st, MOVE_LEFT, st - 1, queue, tail);
+         if ( !isSet(visited, st + 1) && board.isValidShift(pos, 1) )
+            tail = reach(st, MOVE_RIGHT, st + 1, queue, tail);
+         if ( board.isValidMoveDown(pos) ) {
+            if ( !isSet(visited, st + colSpan) ) dropNr = reach(st, MOVE_DOWN, st + colSpan, drops, dropNr);
+         } else {
+            addPlacement(st, rt, c, r);
+         }
+         // clockwise, at the same position of the 4*4 grid
+         int next = (rt + 1) & 3;
+         int nextState = state(next, c, r);
+         if ( !isSet(visited, nextState) ) {
+            setPos(next, c, r);
+            if ( board.isValidAndEmpty(pos) ) tail = reach(st, MOVE_ROTATE, nextState, queue, tail);
+         }
+      }
+      return count;
+   }
+
+   /**
+    * @return int: the number of placements found by the last search
+    */
+   public int getCount() {  return count;  }
+
+   /**
+    * @return int[]: the orientations of the placements, [0, getCount())
+    *                (owned by the enumerator, valid until the next search)
+    */
+   public int[] getRotations() {  return rotations;  }
+
+   /**
+    * @return int[]: the colum of the top-left of the 4*4 tetrad grid of the
+    *                placements (as Tetrad.setPos), [0, getCount())
+    */
+   public int[] getColumns() {  return columns;  }
+
+   /**
+    * @return int[]: the row of the top-left of the 4*4 tetrad grid of the
+    *                placements, [0, getCount())
+    */
+   public int[] getRows() {  return rows;  }
+
+   /**
+    * @param int: the placement, 0 <= ix < getCount()
+    * @param int[]: the buffer to receive the block positions {c0, r0, ..., c3, r3}
+    */
+   public void getBlockPos(int ix, int[] blkPos)
+   {
+      int[] offsets = Tetrad.getBlockOffsets(typeIx, rotations[ix]);
+      for ( int i = 0; i < 8; i += 2 ) {
+         blkPos[i] = columns[ix] + offsets[i];
+         blkPos[i + 1] = rows[ix] + offsets[i + 1];
+      }
+   }
+
+   /**
+    * The sequence of moves to the placement from the start position
+    * (all the moves possible before a drop are done first)
+    * @param int: the placement, 0 <= ix < getCount()
+    * @return int[]: the moves (MOVE_*), in order
+    */
+   public int[] getPath(int ix)
+   {
+      int length = 0;
+      for ( int st = states[ix]; from[st] >= 0; st = from[st] ) length++;
+
+      int[] path = new int[length];
+      for ( int st = states[ix]; from[st] >= 0; st = from[st] ) path[--length] = move[st];
+      return path;
+   }
+
+   /*
+    * the number of the state: the 4*4 grid at (c, r) in orientation rt
+    */
+   private int state(int rt, int c, int r)
+   {
+      return (rt*rowSpan + r + MARGIN)*colSpan + c + MARGIN;
+   }
+
+   /*
+    * the block positions of the state into the buffer
+    */
+   private void setPos(int rt, int c, int r)
+   {
+      int[] offsets = Tetrad.getBlockOffsets(typeIx, rt);
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         pos[ix] = c + offsets[ix];
+         pos[ix + 1] = r + offsets[ix + 1];
+      }
+   }
+
+   /*
+    * a valid state (not visited yet) reached by a move - add it to the list
+    * @return int: the new tail of the list
+    */
+   private int reach(int st, int mv, int next, int[] list, int tail)
+   {
+      visit(next, st, mv);
+      list[tail] = next;
+      return tail + 1;
+   }
+
+   private void visit(int st, int prev, int mv)
+   {
+      visited[st >>> 6] |= 1L << st;
+      from[st] = prev;
+      move[st] = (byte)mv;
+   }
+
+   private static boolean isSet(long[] bits, int ix)
+   {
+      return (bits[ix >>> 6] & (1L << ix)) != 0;
+   }
+
+   /*
+    * a resting state - a new placement unless its cells are covered
+    * by a placement found already (in another orientation)
+    */
+   private void addPlacement(int st, int rt, int c, int r)
+   {
+      int canon = state( canonRot[typeIx][rt], c + canonDc[typeIx][rt], r + canonDr[typeIx][rt] );
+      if ( isSet(landed, canon) ) return;
+      landed[canon >>> 6] |= 1L << canon;
+
+      states[count] = st;
+      rotations[count] = rt;
+      columns[count] = c;
+      rows[count] = r;
+      count++;
+   }
+
+} // end of class PlacementEnumerator
@@ -0,0 +1,38 @@
+/**
+ * The tetrad source picking every tetrad type and color at random
+ * (see TetradSource)
+ */
+
+import java.nio.ByteBuffer;
+
+public class RandomTetradSource implements TetradSource
+{
+   private long seed;
+   private SplitMix64 rand;
+
+   /**
+    * @param long - the seed of the sequence
+    */
+   public RandomTetradSource(long s)
+   {
+      seed = s;
+      rand = new SplitMix64(s);
+   }
+
+   public Tetrad next()
+   {
+      int type = rand.nextInt(Tetrad.TYPE_NR);
+      // index 0 is for empty cell
+      return Tetrad.next( type, 1 + rand.nextInt(ColorServer.TETRAD_COLOR_NR) );
+   }
+
+   public long getSeed() {  return seed;  }
+
+   public Mode getMode() {  return Mode.RANDOM;  }
+
+   // the state: the generator
+   public void saveState(ByteBuffer out) {  out.putLong( rand.getState() );  }
+
+   public void restoreState(ByteBuffer in) {  rand.setState( in.getLong() );  }
+
+} // end of class RandomTetradSource
@@ -0,0 +1,239 @@
+/**
+ * Class RasterBoardRenderer paints the game board by writing the pixels
+ * straight into the int[] data buffer of a BufferedImage (TYPE_INT_RGB),
+ * instead of drawing every cell with the Graphics2D (even as a sprite).
+ *
+ * It shows the same things as GameBoard.display:
+ *   - the cells of the board (a snapshot), lined with the grid line color
+ *   - the active tetrad, lined with the in-motion line color if in-motion
+ *   - the edges of the destination position of the active tetrad
+ *   - at game over, the blocks of the last tetrad that fit on the board
+ *
+ * Every cell interior and every line is a rectangle of pixels, filled row
+ * by row with Arrays.fill; the RGB values of the colors of ColorServer are
+ * taken once. The geometry (xPos, yPos, cellSize, line stroke) is the one
+ * of the game board; the image is created again when it changes.
+ *
+ * A grid line of thickness t is centered on the cell edge: it covers the
+ * t pixels from (edge - t/2).
+ *
+ * The image covers the board and its lines; only the rows of cells inside
+ * the clip of the Graphics are written before the image is drawn on it.
+ * Used by the event thread (or the thread painting the tetris) only.
+ */
+
+import java.util.*;
+import java.awt.*;
+import java.awt.image.*;
+
+class RasterBoardRenderer
+{
+   // the game board to paint, its geometry is read on every paint
+   private GameBoard board = null;
+
+   /*
+    * the RGB value of the colors
+    *  - cellRGB[light ? 1 : 0][colorIx]
+    */
+   private int[][] cellRGB = new int[2][ColorServer.getColorNr()];
+   private int[] gridLineRGB = new int[2];
+   private int motionLineRGB;
+   private int backRGB;
+
+   // the image and its pixels, the geometry it was created for
+   private BufferedImage image = null;
+   private int[] pixels = null;
+   private int width = 0;
+   private int height = 0;
+   private int cellSize = -1;
+   private int lineWidth = -1;
+   // the panel position of the top-left pixel of the image
+   private int originX = 0;
+   private int originY = 0;
+
+   // the region of the image written by the current paint (image coordinates)
+   private int clipX1, clipY1, clipX2, clipY2;
+
+   // block positions buffer {c0, r0, ..., c3, r3}
+   private int[] blkPos = new int[8];
+
+   /**
+    * Constructor
+    * @param GameBoard - the board to paint (its geometry must be set before painting)
+    */
+   RasterBoardRenderer(GameBoard b)
+   {
+      board = b;
+      for ( int ix = 0; ix < ColorServer.getColorNr(); ix++ ) {
+         cellRGB[0][ix] = ColorServer.getCellColor(ix, false).getRGB();
+         cellRGB[1][ix] = ColorServer.getCellColor(ix, true).getRGB();
+      }
+      gridLineRGB[0] = ColorServer.getGridLineColor(false).getRGB();
+      gridLineRGB[1] = ColorServer.getGridLineColor(true).getRGB();
+      motionLineRGB = ColorServer.getMotionLineColor().getRGB();
+      backRGB = ColorServer.getBackColor().getRGB();
+   }
+
+   /**
+    * paint the game board from the snapshot - the same as GameBoard.display
+    *  @param Graphics: where to paint
+    *  @param BoardSnapshot: the state of the game to show
+    */
+   void display(Graphics gr, BoardSnapshot snapshot)
+   {
+      validate();
+      if ( image == null ) return;
+
+      int size = cellSize;
+      int xPos = board.xPos() - originX;
+      int yPos = board.yPos() - originY;
+
+      // the region of the image inside the clip
+      clipX1 = 0;  clipY1 = 0;  clipX2 = width;  clipY2 = height;
+      Rectangle clip = gr.getClipBounds();
+      if ( clip != null ) {
+         clipX1 = Math.max( 0, clip.x - originX );
+         clipY1 = Math.max( 0, clip.y - originY );
+         clipX2 = Math.min( width, clip.x + clip.width - originX );
+         clipY2 = Math.min( height, clip.y + clip.height - originY );
+         if ( clipX1 >= clipX2 || clipY1 >= clipY2 ) return;
+      }
+
+      boolean lightColor = false;
+      boolean inMotion = true;
+      if ( !snapshot.gameStarted() || snapshot.gamePaused() || snapshot.gameOver() ) {
+         inMotion = false;
+         lightColor = true;
+      }
+      int lx = lightColor ? 1 : 0;
+      int[] colorRGB = cellRGB[lx];
+      int lineRGB = gridLineRGB[lx];
+
+      /*
+       * the cells, row by row - only the rows in the clip
+       */
+      int[][] cells = snapshot.getCells();
+      int rowNr = board.rowNr();
+      int colNr = board.colNr();
+      int rowFrom = Math.max( 0, (clipY1 - yPos)/size - 1 );
+      int rowTo = Math.min( rowNr, (clipY2 - yPos)/size + 2 );
+      fillRect( 0, 0, width, height, backRGB );
+      for ( int r = rowFrom; r < rowTo; r++ ) {
+         int[] row = cells[r];
+         int py = yPos + r*size;
+         int c = 0;
+         while ( c < colNr ) {
+            // a run of cells of the same color is one fill per pixel row
+            int colorIx = row[c];
+            int end = c + 1;
+            while ( end < colNr && row[end] == colorIx ) end++;
+            fillRect( xPos + c*size, py, (end - c)*size, size, colorRGB[colorIx] );
+            c = end;
+         }
+      }
+      // the grid lines, across the board
+      int half = lineWidth/2;
+      for ( int r = rowFrom; r <= rowTo; r++ ) {
+         fillRect( xPos - half, yPos + r*size - half, colNr*size + lineWidth, lineWidth, lineRGB );
+      }
+      int top = yPos + rowFrom*size - half;
+      int lineHeight = (rowTo - rowFrom)*size + lineWidth;
+      for ( int c = 0; c <= colNr; c++ ) {
+         fillRect( xPos + c*size - half, top, lineWidth, lineHeight, lineRGB );
+      }
+
+      Tetrad activeTetrad = snapshot.getCurrTetrad();
+      if ( activeTetrad != null ) {
+         int tetradRGB = colorRGB[activeTetrad.getColorIx()];
+         if ( snapshot.gameOver() ) {
+            // this tetrad made the game over - the blocks that fit on the board
+            ArrayList<Point> blkArray = board.getFeasibleBlockPosByLifting( cells,
+                                                                           activeTetrad.getBlockPos(0) );
+            if ( blkArray != null ) {
+               for ( Point blk : blkArray ) {
+                  int px = xPos + size*blk.x;
+                  int py = yPos + size*blk.y;
+                  fillRect( px, py, size, size, tetradRGB );
+                  drawEdges( px, py, lineRGB );
+               }
+            }
+         } else {
+            // the active tetrad
+            activeTetrad.getBlockPos(0, blkPos);
+            int edgeRGB = inMotion ? motionLineRGB : lineRGB;
+            for ( int ix = 0; ix < 8; ix += 2 ) {
+               int px = xPos + size*blkPos[ix];
+               int py = yPos + size*blkPos[ix + 1];
+               fillRect( px, py, size, size, tetradRGB );
+               drawEdges( px, py, edgeRGB );
+            }
+            // the end position if the tetrad touches the ground - only the edges
+            int[] ghostPos = snapshot.getGhostPos();
+            if ( ghostPos != null ) {
+               int ghostRGB = ColorServer.getTetradLineColor(activeTetrad).getRGB();
+               for ( int ix = 0; ix < 8; ix += 2 ) {
+                  drawEdges( xPos + size*ghostPos[ix], yPos + size*ghostPos[ix + 1], ghostRGB );
+               }
+            }
+         }
+      }
+
+      gr.drawImage( image, originX, originY, null );
+   }
+
+   /*
+    * create the image if there is none or the geometry of the board changed
+    */
+   private void validate()
+   {
+      int size = board.cellSize();
+      BasicStroke stroke = board.lineStroke();
+      int lw = ( stroke == null ) ? 1 : Math.max( 1, Math.round(stroke.getLineWidth()) );
+      int x = board.xPos() - lw;
+      int y = board.yPos() - lw;
+      if ( image != null && size == cellSize && lw == lineWidth
+                         && x == originX && y == originY ) return;
+
+      cellSize = size;
+      lineWidth = lw;
+      originX = x;
+      originY = y;
+      width = board.colNr()*size + 2*lw;
+      height = board.rowNr()*size + 2*lw;
+      if ( size <= 0 ) {
+         image = null;
+         pixels = null;
+         return;
+      }
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+   }
+
+   /*
+    * the four edge lines of the cell at (px, py) (image coordinates)
+    */
+   private void drawEdges(int px, int py, int rgb)
+   {
+      int half = lineWidth/2;
+      fillRect( px - half, py - half, cellSize + lineWidth, lineWidth, rgb );
+      fillRect( px - half, py + cellSize - half, cellSize + lineWidth, lineWidth, rgb );
+      fillRect( px - half, py - half, lineWidth, cellSize + lineWidth, rgb );
+      fillRect( px + cellSize - half, py - half, lineWidth, cellSize + lineWidth, rgb );
+   }
+
+   /*
+    * fill a rectangle (image coordinates) with the color, inside the clip only
+    */
+   private void fillRect(int x, int y, int w, int h, int rgb)
+   {
+      int x1 = Math.max( x, clipX1 );
+      int x2 = Math.min( x + w, clipX2 );
+      int y1 = Math.max( y, clipY1 );
+      int y2 = Math.min( y + h, clipY2 );
+      if ( x1 >= x2 ) return;
+      for ( int offset = y1*width; y1 < y2; y1++, offset += width ) {
+         Arrays.fill( pixels, offset + x1, offset + x2, rgb );
+      }
+   }
+
+} // end of class RasterBoardRenderer
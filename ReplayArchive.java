@@ -0,0 +1,439 @@
+/**
+ * Class ReplayArchive keeps many recorded games (ReplayRecorder streams) in
+ * two append-only files, read through memory mappings:
+ *   - the data file (base.data): the replays, one after the other
+ *   - the index file (base.idx): a header (INDEX_MAGIC, FORMAT_VERSION, the
+ *     segment size) and a record of RECORD_SIZE bytes per game: its id, the
+ *     scores, the date (epoch milliseconds), the offset and the length of its
+ *     replay in the data file
+ *
+ * The data file is mapped in segments of SEGMENT_SIZE bytes (a mapping is
+ * limited to 2 GB). A replay never crosses a segment boundary - the appender
+ * skips to the next segment if it would - so every replay is one slice of
+ * one mapping, handed out without copying (getReplay) and played from there
+ * (ReplayPlayer). The slices are independent buffers: any number of threads
+ * read the archive at once (scan).
+ *
+ * The index file is one mapping too: an archive keeps up to 53 million
+ * games (2 GB of index records).
+ *
+ * The games are found by the index:
+ *   - by id (find): a binary search over the records ordered by id
+ *   - by scores or by date (findByScores, findByDate): the records in a
+ *     range, from the records ordered by scores / by date
+ * The orders are built when the archive is opened (an int per game and
+ * order); the record fields are read from the mapped index file.
+ *
+ * An archive opened sees the games appended before it was opened. The games
+ * are appended by an Appender (one at a time): the replay is written first,
+ * its index record after it, so a record always refers to a complete replay.
+ *
+ * The main method adds replay files to an archive and scans archives:
+ *    java ReplayArchive add base file [gameId]
+ *    java ReplayArchive scan base [threads]
+ *    java ReplayArchive get base gameId
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+
+public class ReplayArchive implements Closeable
+{
+   // "TTRA" - a tetris replay archive
+   public static final int INDEX_MAGIC = 0x54545241;
+   public static final int FORMAT_VERSION = 1;
+   public static final long SEGMENT_SIZE = 1L << 30;
+
+   /*
+    * the index file: the header, then the records
+    *   id (long), scores (long), date (long), offset (long), length (int), unused (int)
+    */
+   static final int HEADER_SIZE = 16;
+   static final int RECORD_SIZE = 40;
+   private static final int ID = 0;
+   private static final int SCORES = 8;
+   private static final int DATE = 16;
+   private static final int OFFSET = 24;
+   private static final int LENGTH = 32;
+
+   // a task scans this many games or fewer, more are split
+   private static final int GAMES_PER_TASK = 64;
+
+   private FileChannel dataChannel;
+   private FileChannel indexChannel;
+   private MappedByteBuffer index;
+   private MappedByteBuffer[] segments;
+   private int gameNr;
+
+   // the records ordered by id, by scores and by date
+   private int[] byId;
+   private int[] byScores;
+   private int[] byDate;
+
+   /**
+    * Open an archive for reading, map its files
+    * @param Path - the base name of the files (base.data, base.idx)
+    * @throws IOException - if the files cannot be read or are no archive
+    */
+   public ReplayArchive(Path base) throws IOException
+   {
+      dataChannel = FileChannel.open( dataPath(base), StandardOpenOption.READ );
+      indexChannel = FileChannel.open( indexPath(base), StandardOpenOption.READ );
+
+      long indexSize = indexChannel.size();
+      if ( indexSize < HEADER_SIZE )
+         throw new IOException("not a replay archive index: " + indexPath(base));
+      index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+      if ( index.getInt(0) != INDEX_MAGIC || index.getInt(4) != FORMAT_VERSION
+                                          || index.getLong(8) != SEGMENT_SIZE )
+         throw new IOException("not a replay archive index of version " + FORMAT_VERSION
+                               + ": " + indexPath(base));
+      gameNr = (int)((indexSize - HEADER_SIZE)/RECORD_SIZE);
+
+      long dataSize = dataChannel.size();
+      segments = new MappedByteBuffer[(int)((dataSize + SEGMENT_SIZE - 1)/SEGMENT_SIZE)];
+      for ( int s = 0; s < segments.length; s++ ) {
+         long start = s*SEGMENT_SIZE;
+         segments[s] = dataChannel.map( FileChannel.MapMode.READ_ONLY, start,
+                                        Math.min(SEGMENT_SIZE, dataSize - start) );
+      }
+
+      byId = order(ID);
+      byScores = order(SCORES);
+      byDate = order(DATE);
+   }
+
+   /**
+    * @return int: the number of games in the archive
+    */
+   public int size() {  return gameNr;  }
+
+   /*
+    * the fields of the records, 0 <= record < size()
+    */
+   public long getGameId(int record) {  return field(record, ID);  }
+   public long getScores(int record) {  return field(record, SCORES);  }
+   public long getDate(int record) {  return field(record, DATE);  }
+
+   /**
+    * @param int: the record, 0 <= record < size()
+    * @return ByteBuffer: the replay of the game, read only - a slice of the
+    *                     mapped data file, nothing copied (ReplayPlayer plays it)
+    */
+   public ByteBuffer getReplay(int record)
+   {
+      long offset = field(record, OFFSET);
+      int length = index.getInt(HEADER_SIZE + record*RECORD_SIZE + LENGTH);
+      ByteBuffer replay = segments[(int)(offset/SEGMENT_SIZE)].duplicate();
+      int start = (int)(offset % SEGMENT_SIZE);
+      replay.position(start);
+      replay.limit(start + length);
+      return replay.slice().asReadOnlyBuffer();
+   }
+
+   /**
+    * @param long: the id of a game
+    * @return int: the record of the game, -1 if not in the archive
+    */
+   public int find(long gameId)
+   {
+      int ix = lowerBound(byId, ID, gameId);
+      return ( ix < gameNr && getGameId(byId[ix]) == gameId ) ? byId[ix] : -1;
+   }
+
+   /**
+    * @param long: the lowest scores
+    * @param long: the highest scores
+    * @return int[]: the records of the games with scores in [min, max], by scores
+    */
+   public int[] findByScores(long min, long max) {  return range(byScores, SCORES, min, max);  }
+
+   /**
+    * @param long: the first date (epoch milliseconds)
+    * @param long: the last date
+    * @return int[]: the records of the games played in [from, to], by date
+    */
+   public int[] findByDate(long from, long to) {  return range(byDate, DATE, from, to);  }
+
+   /**
+    * Play all games of the archive in parallel, combine a result per game
+    * (e.g. statistics of the games)
+    * @param int - the number of threads (<= 0: all available processors)
+    * @param BiFunction<Integer, ByteBuffer, R> - the result of a game from its
+    *                                             record and replay (any thread)
+    * @param BiFunction<R, R, R> - combines two results
+    * @return R: the combined result, null if the archive is empty
+    */
+   public <R> R scan(int threads, BiFunction<Integer, ByteBuffer, R> perGame,
+                     BiFunction<R, R, R> combine)
+   {
+      if ( gameNr == 0 ) return null;
+      if ( threads <= 0 ) threads = Runtime.getRuntime().availableProcessors();
+
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         return pool.invoke( new ScanTask<R>(0, gameNr, perGame, combine) );
+      } finally {
+         pool.shutdown();
+      }
+   }
+
+   /*
+    * scans the games [from, to), splits if there are too many
+    */
+   private class ScanTask<R> extends RecursiveTask<R>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private int from;
+      private int to;
+      private BiFunction<Integer, ByteBuffer, R> perGame;
+      private BiFunction<R, R, R> combine;
+
+      ScanTask(int f, int t, BiFunction<Integer, ByteBuffer, R> p, BiFunction<R, R, R> c)
+      {
+         from = f;   to = t;
+         perGame = p;
+         combine = c;
+      }
+
+      protected R compute()
+      {
+         if ( to - from > GAMES_PER_TASK ) {
+            int mid = (from + to) >>> 1;
+            ScanTask<R> left = new ScanTask<R>(from, mid, perGame, combine);
+            left.fork();
+            R right = new ScanTask<R>(mid, to, perGame, combine).compute();
+            return combine.apply(left.join(), right);
+         }
+
+         R result = perGame.apply(from, getReplay(from));
+         for ( int record = from + 1; record < to; ++record ) {
+            result = combine.apply( result, perGame.apply(record, getReplay(record)) );
+         }
+         return result;
+      }
+   }
+
+   /**
+    * close the files (the buffers handed out must not be used anymore)
+    */
+   public void close() throws IOException
+   {
+      dataChannel.close();
+      indexChannel.close();
+   }
+
+   private long field(int record, int field)
+   {
+      return index.getLong(HEADER_SIZE + record*RECORD_SIZE + field);
+   }
+
+   /*
+    * the records ordered by a field (merge sort - stable, the records of the
+    * same value in the order appended)
+    */
+   private int[] order(int field)
+   {
+      int[] sorted = new int[gameNr];
+      long[] keys = new long[gameNr];
+      for ( int record = 0; record < gameNr; ++record ) {
+         sorted[record] = record;
+         keys[record] = field(record, field);
+      }
+      int[] work = new int[gameNr];
+      for ( int width = 1; width < gameNr; width *= 2 ) {
+         for ( int lo = 0; lo < gameNr; lo += 2*width ) {
+            int mid = Math.min(lo + width, gameNr);
+            int hi = Math.min(lo + 2*width, gameNr);
+            int i = lo, j = mid, k = lo;
+            while ( i < mid && j < hi ) work[k++] = ( keys[sorted[j]] < keys[sorted[i]] ) ? sorted[j++] : sorted[i++];
+            while ( i < mid ) work[k++] = sorted[i++];
+            while ( j < hi ) work[k++] = sorted[j++];
+         }
+         int[] swap = sorted;
+         sorted = work;
+         work = swap;
+      }
+      return sorted;
+   }
+
+   /*
+    * @return int: the first position of the order with the field >= value
+    */
+   private int lowerBound(int[] order, int field, long value)
+   {
+      int lo = 0, hi = gameNr;
+      while ( lo < hi ) {
+         int mid = (lo + hi) >>> 1;
+         if ( field(order[mid], field) < value ) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   private int[] range(int[] order, int field, long min, long max)
+   {
+      int from = lowerBound(order, field, min);
+      int to = from;
+      while ( to < gameNr && field(order[to], field) <= max ) to++;
+      return java.util.Arrays.copyOfRange(order, from, to);
+   }
+
+   static Path dataPath(Path base) {  return Paths.get(base + ".data");  }
+   static Path indexPath(Path base) {  return Paths.get(base + ".idx");  }
+
+   /**
+    * Appends games to an archive (creates its files if needed).
+    * An appender is used by one thread at a time, and one appender per archive.
+    */
+   public static class Appender implements Closeable
+   {
+      private FileChannel data;
+      private FileChannel index;
+      private ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+      /**
+       * @param Path - the base name of the files (base.data, base.idx)
+       * @throws IOException - if the files cannot be opened or are no archive
+       */
+      public Appender(Path base) throws IOException
+      {
+         data = FileChannel.open( dataPath(base), StandardOpenOption.CREATE,
+                                  StandardOpenOption.READ, StandardOpenOption.WRITE );
+         index = FileChannel.open( indexPath(base), StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE );
+         if ( index.size() == 0 ) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putLong(SEGMENT_SIZE).flip();
+            writeFully(index, header, 0);
+         } else {
+            // the new games are placed in segments of SEGMENT_SIZE - the archive must have the same
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while ( header.hasRemaining() ) {
+               if ( index.read(header, header.position()) < 0 ) break;
+            }
+            if ( header.hasRemaining() || header.getInt(0) != INDEX_MAGIC
+                 || header.getInt(4) != FORMAT_VERSION || header.getLong(8) != SEGMENT_SIZE ) {
+               data.close();
+               index.close();
+               throw new IOException("not a replay archive index of version " + FORMAT_VERSION
+                                     + " with segments of " + SEGMENT_SIZE + " bytes: " + indexPath(base));
+            }
+         }
+      }
+
+      /**
+       * Append a game
+       * @param long - the id of the game
+       * @param long - its scores
+       * @param long - its date (epoch milliseconds)
+       * @param ByteBuffer - its replay (ReplayRecorder stream), from position to limit
+       * @return long: the record of the game
+       * @throws IOException - if the files cannot be written
+       */
+      public long append(long gameId, long scores, long date, ByteBuffer replay) throws IOException
+      {
+         int length = replay.remaining();
+         if ( length > SEGMENT_SIZE )
+            throw new IllegalArgumentException("replay of " + length + " bytes too long for a segment");
+
+         // a replay does not cross a segment boundary
+         long offset = data.size();
+         if ( offset/SEGMENT_SIZE != (offset + length - 1)/SEGMENT_SIZE ) {
+            offset = (offset/SEGMENT_SIZE + 1)*SEGMENT_SIZE;
+         }
+         writeFully(data, replay.duplicate(), offset);
+
+         long recordNr = (index.size() - HEADER_SIZE)/RECORD_SIZE;
+         record.clear();
+         record.putLong(gameId).putLong(scores).putLong(date).putLong(offset).putInt(length).putInt(0);
+         record.flip();
+         writeFully(index, record, HEADER_SIZE + recordNr*RECORD_SIZE);
+         return recordNr;
+      }
+
+      /**
+       * force the appended games to the disk and close the files
+       */
+      public void close() throws IOException
+      {
+         data.force(false);
+         index.force(false);
+         data.close();
+         index.close();
+      }
+
+      private static void writeFully(FileChannel ch, ByteBuffer bytes, long position) throws IOException
+      {
+         while ( bytes.hasRemaining() ) position += ch.write(bytes, position);
+      }
+   }
+
+   /**
+    * Add a replay file to an archive, scan an archive or play one of its games
+    * @param String[] - add base file [gameId] | scan base [threads] | get base gameId
+    */
+   public static void main(String[] args) throws IOException
+   {
+      Path base = Paths.get(args[1]);
+      if ( args[0].equals("add") ) {
+         Path file = Paths.get(args[2]);
+         ByteBuffer replay = ByteBuffer.wrap( Files.readAllBytes(file) );
+         // the scores from playing the replay
+         GameEngine engine = new ReplayPlayer(replay).play(null);
+         try ( Appender appender = new Appender(base) ) {
+            long gameId = args.length > 3 ? Long.parseLong(args[3])
+                                          : SplitMix64.mix64( file.toString().hashCode() );
+            long record = appender.append( gameId, engine.getScores(),
+                                           Files.getLastModifiedTime(file).toMillis(), replay );
+            System.out.println("game " + gameId + " (scores " + engine.getScores() + ") is record " + record);
+         }
+         return;
+      }
+
+      try ( ReplayArchive archive = new ReplayArchive(base) ) {
+         if ( args[0].equals("get") ) {
+            int record = archive.find( Long.parseLong(args[2]) );
+            if ( record < 0 ) {
+               System.out.println("game " + args[2] + " not in the archive");
+               return;
+            }
+            GameEngine engine = new ReplayPlayer( archive.getReplay(record) ).play(null);
+            System.out.println("game " + args[2] + ": scores " + engine.getScores()
+                               + ", placements " + engine.getPlacements() + ", lines " + engine.getLinesCleared());
+            return;
+         }
+
+         // scan: play all games, sum their events and placements
+         int threads = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+         long start = System.nanoTime();
+         long[] total = archive.scan( threads, (record, replay) -> {
+               try {
+                  ReplayPlayer player = new ReplayPlayer(replay);
+                  GameEngine engine = player.play(null);
+                  return new long[]{ 1, player.getEvents(), engine.getPlacements(), engine.getScores() };
+               } catch ( IOException e ) {
+                  throw new java.io.UncheckedIOException(e);
+               }
+            },
+            (a, b) -> new long[]{ a[0] + b[0], a[1] + b[1], a[2] + b[2], a[3] + b[3] } );
+         long elapsed = System.nanoTime() - start;
+         if ( total == null ) total = new long[4];
+         System.out.println(String.format("%d games, %d events, %d placements, %d scores played in %.3f s (%.0f games/s)",
+                                          total[0], total[1], total[2], total[3], elapsed/1e9,
+                                          total[0]*1e9/elapsed));
+      }
+   }
+
+} // end of class ReplayArchive
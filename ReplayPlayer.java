@@ -0,0 +1,218 @@
+/**
+ * Class ReplayPlayer plays a game recorded by a ReplayRecorder again.
+ *
+ * It creates an engine like the one recorded (size, preview number, tetrad
+ * source with the same mode and seed) and feeds the events of the stream to
+ * it: the time passed (GameEngine.advance) and the command (GameEngine.apply).
+ * The engine goes through the same states as the one recorded - as fast as
+ * it can, no time is waited for.
+ *
+ * The stream is read through a buffer, a chunk at a time: a replay of any
+ * length is played in constant memory. A replay in memory (e.g. a game of a
+ * memory-mapped ReplayArchive) is played from its buffer, nothing copied.
+ * A listener may look at the engine after every event (e.g. to find where a
+ * bug shows up, or to collect statistics of an archive of replays).
+ *
+ * The main method plays a replay file and prints the result:
+ *    java ReplayPlayer file
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ReplayPlayer
+{
+   private static final int BUFFER_SIZE = 8192;
+   // the board sizes a replay is played on (a damaged header gets no huge board)
+   private static final int MIN_SIZE = 4;
+   private static final int MAX_SIZE = 1 << 15;
+   private static final long MAX_CELLS = 1L << 24;
+
+   private ReadableByteChannel channel;
+   private ByteBuffer buffer;
+
+   // the engine playing the game again
+   private GameEngine engine;
+   private long events = 0;
+   private long timeNanos = 0;
+   private boolean ended = false;
+
+   /**
+    * Constructor - reads the header of the stream and creates the engine
+    * @param ReadableByteChannel - the stream written by a ReplayRecorder
+    * @throws IOException - if the stream cannot be read or is no replay
+    */
+   public ReplayPlayer(ReadableByteChannel ch) throws IOException
+   {
+      channel = ch;
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.limit(0);
+      readHeader();
+   }
+
+   /**
+    * Constructor - reads the header of the replay and creates the engine
+    * @param ByteBuffer - the replay, from its position to its limit (not modified)
+    * @throws IOException - if the replay is no replay
+    */
+   public ReplayPlayer(ByteBuffer replay) throws IOException
+   {
+      channel = null;
+      buffer = replay.slice();
+      readHeader();
+   }
+
+   /*
+    * the header: check the format, create the engine
+    */
+   private void readHeader() throws IOException
+   {
+      fill(5);
+      if ( buffer.getInt() != ReplayRecorder.MAGIC )
+         throw new IOException("not a replay stream");
+      int version = buffer.get();
+      if ( version != ReplayRecorder.FORMAT_VERSION )
+         throw new IOException("replay format version " + version + " not supported");
+
+      int rowNr = checkHeader( getVarint(), MIN_SIZE, MAX_SIZE, "row number" );
+      int colNr = checkHeader( getVarint(), MIN_SIZE, MAX_SIZE, "colum number" );
+      if ( (long)rowNr*colNr > MAX_CELLS )
+         throw new IOException("replay board " + rowNr + "x" + colNr + " too large");
+      int previewNr = checkHeader( getVarint(), 1, GameEngine.MAX_PREVIEW_NR, "preview number" );
+      fill(9);
+      TetradSource.Mode[] modes = TetradSource.Mode.values();
+      TetradSource.Mode mode = modes[ checkHeader(buffer.get(), 0, modes.length - 1, "tetrad source") ];
+      long seed = buffer.getLong();
+
+      engine = new GameEngine( rowNr, colNr, TetradSource.create(mode, seed) );
+      engine.setPreviewNr(previewNr);
+   }
+
+   /*
+    * @param long - a value of the header
+    * @param int - its lowest value
+    * @param int - its highest value
+    * @param String - what it is (in the message)
+    * @return int: the value
+    * @throws IOException - if it is out of the range (the stream is damaged)
+    */
+   private static int checkHeader(long value, int min, int max, String what) throws IOException
+   {
+      if ( value < min || value > max )
+         throw new IOException("replay " + what + " " + value + " not in [" + min + ", " + max + "]");
+      return (int)value;
+   }
+
+   /**
+    * @return GameEngine: the engine playing the game again
+    */
+   public GameEngine getEngine() {  return engine;  }
+
+   /**
+    * @return long: the events played
+    */
+   public long getEvents() {  return events;  }
+
+   /**
+    * @return long: the time passed in the replay so far, in nanoseconds
+    */
+   public long getTimeNanos() {  return timeNanos;  }
+
+   /**
+    * @return boolean: true if the END event was played
+    */
+   public boolean isEnded() {  return ended;  }
+
+   /**
+    * Play the next event: advance the engine by its time, apply its command
+    * @return int: the command applied (GameEngine.CMD_*),
+    *              ReplayRecorder.CMD_END if the replay ended
+    * @throws IOException - if the stream cannot be read or ends before END
+    */
+   public int step() throws IOException
+   {
+      if ( ended ) return ReplayRecorder.CMD_END;
+
+      long event = getVarint();
+      long nanos = event >>> ReplayRecorder.CMD_BITS;
+      int command = (int)(event & ((1 << ReplayRecorder.CMD_BITS) - 1));
+
+      engine.advance(nanos);
+      timeNanos += nanos;
+      events++;
+      if ( command == ReplayRecorder.CMD_END ) {
+         ended = true;
+      } else {
+         engine.apply(command);
+      }
+      return command;
+   }
+
+   /**
+    * Play the replay to its end
+    * @param Runnable - called after every event (null if none)
+    * @return GameEngine: the engine in the state the recording ended
+    * @throws IOException - if the stream cannot be read or ends before END
+    */
+   public GameEngine play(Runnable listener) throws IOException
+   {
+      while ( step() != ReplayRecorder.CMD_END ) {
+         if ( listener != null ) listener.run();
+      }
+      return engine;
+   }
+
+   /*
+    * a varint of the stream
+    */
+   private long getVarint() throws IOException
+   {
+      long value = 0;
+      for ( int shift = 0; shift < 64; shift += 7 ) {
+         fill(1);
+         byte b = buffer.get();
+         value |= (long)(b & 0x7F) << shift;
+         if ( b >= 0 ) return value;
+      }
+      throw new IOException("bad varint in the replay stream");
+   }
+
+   /*
+    * make sure the buffer has n bytes to read
+    */
+   private void fill(int n) throws IOException
+   {
+      if ( buffer.remaining() >= n ) return;
+      if ( channel == null ) throw new EOFException("replay ended before END");
+      buffer.compact();
+      while ( buffer.position() < n ) {
+         if ( channel.read(buffer) < 0 ) throw new EOFException("replay stream ended before END");
+      }
+      buffer.flip();
+   }
+
+   /**
+    * Play a replay file and print the result
+    * @param String[] - the replay file
+    */
+   public static void main(String[] args) throws IOException
+   {
+      try ( FileChannel ch = FileChannel.open( Paths.get(args[0]), StandardOpenOption.READ ) ) {
+         long start = System.nanoTime();
+         ReplayPlayer player = new ReplayPlayer(ch);
+         GameEngine engine = player.play(null);
+         long elapsed = System.nanoTime() - start;
+         System.out.println(String.format("%d events, %.1f s of game played in %.3f s: "
+                                          + "scores %d, level %d, placements %d, lines %d%s",
+                                          player.getEvents(), player.getTimeNanos()/1e9, elapsed/1e9,
+                                          engine.getScores(), engine.getLevel(), engine.getPlacements(),
+                                          engine.getLinesCleared(), engine.gameOver() ? ", game over" : ""));
+      }
+   }
+
+} // end of class ReplayPlayer
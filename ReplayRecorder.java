@@ -0,0 +1,153 @@
+/**
+ * Class ReplayRecorder writes a game as a compact binary stream: what is
+ * needed to play it again exactly (see ReplayPlayer).
+ *
+ * A game is determined by its tetrad source (the mode and the seed), and by
+ * the player instructions with the game time passed before each of them - the
+ * engine drops the tetrads the same whether the time comes in one piece or
+ * in many (GameEngine.advance). So the stream is
+ *   - a header: MAGIC, FORMAT_VERSION, the row, colum and preview numbers,
+ *     the mode of the tetrad source and its seed
+ *   - an event per command applied: the time passed since the previous event
+ *     (nanoseconds) and the command code, as one varint: time << 3 | command
+ *   - an END event with the time passed after the last command
+ * A varint is the LEB128 encoding: 7 bits per byte, low bits first, the high
+ * bit set on all bytes but the last. An event takes 1 to 5 bytes for the
+ * time between two key presses.
+ *
+ * The recording covers the engine from its creation: all the games played on
+ * it (the ENTER commands starting them are recorded too).
+ *
+ * The bytes are collected in a direct buffer, written to the channel when it
+ * is full and when the recorder is closed. A game loop reports the time and
+ * the commands on its own thread (GameLoop.setRecorder); close may be called
+ * by another thread (e.g. a shutdown hook), so the methods are synchronized -
+ * the lock is not contended.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class ReplayRecorder
+{
+   // "TTRP" - a tetris replay
+   public static final int MAGIC = 0x54545250;
+   public static final int FORMAT_VERSION = 1;
+   // the command code of the last event
+   public static final int CMD_END = 7;
+   // the command takes the low 3 bits of an event
+   static final int CMD_BITS = 3;
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private WritableByteChannel channel;
+   private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+   // the time passed since the last event
+   private long pendingNanos = 0;
+   private long events = 0;
+   private boolean closed = false;
+
+   /**
+    * Constructor - writes the header of the stream
+    * pre-condition: no command applied to the engine yet
+    * @param WritableByteChannel - where to write the stream (closed by close)
+    * @param GameEngine - the game to record: its size, preview number and tetrad source
+    * @throws IllegalStateException - if a game was started on the engine
+    *                                 (e.g. a game restored in the middle)
+    */
+   public ReplayRecorder(WritableByteChannel ch, GameEngine engine)
+   {
+      // the stream has the tetrad source from its start only
+      if ( engine.gameStarted() )
+         throw new IllegalStateException("a game was started on the engine - it cannot be replayed");
+      channel = ch;
+      GameBoard board = engine.getGameBoard();
+      TetradSource source = engine.getTetradSource();
+
+      buffer.putInt(MAGIC);
+      buffer.put( (byte)FORMAT_VERSION );
+      putVarint( board.rowNr() );
+      putVarint( board.colNr() );
+      putVarint( engine.getPreviewNr() );
+      buffer.put( (byte)source.getMode().ordinal() );
+      buffer.putLong( source.getSeed() );
+   }
+
+   /**
+    * The game time moved on (as GameEngine.advance)
+    * @param long: the time passed, in nanoseconds
+    */
+   public synchronized void advanced(long nanos)
+   {
+      if ( nanos > 0 ) pendingNanos += nanos;
+   }
+
+   /**
+    * A command was applied (as GameEngine.apply), after the time reported
+    * @param int: one of the GameEngine.CMD_* codes
+    */
+   public synchronized void applied(int command)
+   {
+      if ( closed ) return;
+      putEvent(pendingNanos, command);
+      pendingNanos = 0;
+   }
+
+   /**
+    * @return long: the number of events recorded (commands and END)
+    */
+   public synchronized long getEvents() {  return events;  }
+
+   /**
+    * Write the END event and the rest of the buffer, close the channel
+    */
+   public synchronized void close()
+   {
+      if ( closed ) return;
+      putEvent(pendingNanos, CMD_END);
+      closed = true;
+      flush();
+      try {
+         channel.close();
+      } catch ( IOException e ) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /*
+    * an event: the time before it and the command as one varint
+    */
+   private void putEvent(long nanos, int command)
+   {
+      if ( buffer.remaining() < 10 ) flush();
+      putVarint( (nanos << CMD_BITS) | command );
+      events++;
+   }
+
+   private void putVarint(long value)
+   {
+      while ( (value & ~0x7FL) != 0 ) {
+         buffer.put( (byte)((value & 0x7F) | 0x80) );
+         value >>>= 7;
+      }
+      buffer.put( (byte)value );
+   }
+
+   /*
+    * write the bytes collected to the channel
+    */
+   private void flush()
+   {
+      buffer.flip();
+      try {
+         while ( buffer.hasRemaining() ) channel.write(buffer);
+      } catch ( IOException e ) {
+         throw new UncheckedIOException(e);
+      }
+      buffer.clear();
+   }
+
+} // end of class ReplayRecorder
@@ -0,0 +1,111 @@
+/**
+ * A small and fast splittable random generator (SplitMix64).
+ *
+ * The state is a single long advanced by a constant odd gamma on every call
+ * (the golden gamma for a generator made by the constructor); the output is
+ * the state passed through a 64 bit finalizer. Compared with java.util.Random:
+ *   - no atomic update of the seed (not thread-safe - one generator per
+ *     game / thread, which is how the game uses it)
+ *   - split() hands out an independent generator, e.g. for another
+ *     simulator thread, without any shared state: its seed and its gamma
+ *     are both drawn from this generator (as java.util.SplittableRandom),
+ *     so the two walk different sequences, not one sequence at an offset
+ *   - the state is one long, so a game can be saved and replayed
+ */
+
+public class SplitMix64
+{
+   private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+   // the state
+   private long seed;
+   // added to the state on every call, odd
+   private final long gamma;
+
+   /**
+    * @param long - the seed; the same seed gives the same sequence
+    */
+   public SplitMix64(long s)
+   {
+      this(s, GOLDEN_GAMMA);
+   }
+
+   /*
+    * a generator of split()
+    */
+   private SplitMix64(long s, long g)
+   {
+      seed = s;
+      gamma = g;
+   }
+
+   /**
+    * @return long: the next pseudo random long
+    */
+   public long nextLong()
+   {
+      seed += gamma;
+      return mix64(seed);
+   }
+
+   /**
+    * pre-condition: bound > 0
+    * @param int - the upper bound (exclusive)
+    * @return int: the next pseudo random int in [0, bound)
+    *              (multiply-shift of the upper 32 bits - the bias is below
+    *              2^-32 * bound, nothing for the tetrad types and colors)
+    */
+   public int nextInt(int bound)
+   {
+      return (int)( ((nextLong() >>> 32) * bound) >>> 32 );
+   }
+
+   /**
+    * @return SplitMix64: a new generator, its seed and gamma drawn from this one
+    */
+   public SplitMix64 split()
+   {
+      long s = nextLong();
+      seed += gamma;
+      return new SplitMix64( s, mixGamma(seed) );
+   }
+
+   /**
+    * @return long: the state of this generator (to save and restore it;
+    *               the gamma is not in it - a generator of split() goes on
+    *               from a restored state with the golden gamma)
+    */
+   public long getState() {  return seed;  }
+
+   /**
+    * @param long: the state to continue from (as returned by getState)
+    */
+   public void setState(long s) {  seed = s;  }
+
+   /**
+    * The SplitMix64 finalizer - spreads the bits of z over the whole long.
+    * Also used to derive independent seeds from consecutive numbers
+    * @param long - the value to mix
+    * @return long: the mixed value
+    */
+   public static long mix64(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /*
+    * the gamma of a generator of split(): z mixed (the MurmurHash3 finalizer),
+    * made odd, and with its bits flipping often enough between neighbours -
+    * a gamma of few bit changes walks the states too regularly
+    */
+   private static long mixGamma(long z)
+   {
+      z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+      z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+      z = (z ^ (z >>> 33)) | 1L;
+      return Long.bitCount( z ^ (z >>> 1) ) < 24 ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+   }
+
+} // end of class SplitMix64
@@ -47,6 +47,11 @@
  *
  *         Used by the game board, for example, to determined
  *         if the tetrad configurtaion can be moved or rotated
+ *
+ *    - void getBlockPos(int rta, int[] pos):
+ *         the same positions written into a caller-supplied buffer
+ *           as {c0, r0, c1, r1, c2, r2, c3, r3}, no object allocated.
+ *         Used on the hot paths (every tick, key press and paint)
  */
 
 import java.util.*;
@@ -55,9 +60,9 @@ import java.awt.*;
 public class Tetrad
 {
    /*
-    * used by next() in generate a tetrad (randomly pick the type and color)
+    * the number of tetrad types
     */
-   private static Random rand = new Random();
+   public static final int TYPE_NR = 7;
    /*
     * tetrads of all types in all possible roations.
     * represented in a 4*4 grid: 1 - a tetrad block
@@ -258,13 +263,62 @@ public class Tetrad
             { new Point(1, 1), new Point(0, 1), new Point(1, 0),  new Point(1, 1) }
          };
 
+   /*
+    * The block offsets of all types in all rotations, relative to the top-left
+    * of the 4*4 grid, computed once from the types array:
+    *   blockOffsets[type][rotation] = {c0, r0, c1, r1, c2, r2, c3, r3}
+    * in the same order getBlockPos returns the blocks. Never modified.
+    */
+   private static final int[][][] blockOffsets = buildBlockOffsets();
+
+   /*
+    * build the block offset table from the types array
+    */
+   private static int[][][] buildBlockOffsets()
+   {
+      int[][][] offsets = new int[types.length][4][8];
+      for ( int t = 0; t < types.length; ++t ) {
+         for ( int rt = 0; rt < 4; ++rt ) {
+            int[][] activeBlocks = types[t][rt];
+            int count = 0;
+            for ( int r = 0; r < activeBlocks.length && count < 4; r++ ) {
+               for ( int c = 0; c < activeBlocks[r].length && count < 4; c++ ) {
+                  if ( activeBlocks[r][c] == 1 ) {
+                     offsets[t][rt][2*count] = c;
+                     offsets[t][rt][2*count + 1] = r;
+                     count++;
+                  }
+               }
+            }
+         }
+      }
+      return offsets;
+   }
+
   /**
-   * @retrun Tetard - a tetrad in the orignal orientation of
-   *                  a rondom type and in a random color
+   * Used by the tetrad sources (see TetradSource) which pick the type and
+   * the color with their own generators
+   *
+   * @param int tx - the type index, 0 <= tx < TYPE_NR
+   * @param int color - the color index, 0 < color <= ColorServer.TETRAD_COLOR_NR
+   * @retrun Tetard - a tetrad in the orignal orientation
    */
-   public static Tetrad next()
+   public static Tetrad next(int tx, int color)
+   {
+      return new Tetrad(tx, color);
+   }
+
+   /**
+    * Used by the placement search (see PlacementEnumerator), which moves
+    * block positions around without tetrad objects
+    * @param int tx - the type index, 0 <= tx < TYPE_NR
+    * @param int rt - the orientation, 0 - 3
+    * @return int[] - the block offsets {c0, r0, ..., c3, r3} relative to the
+    *                 top-left of the 4*4 grid (shared, do not modify)
+    */
+   static int[] getBlockOffsets(int tx, int rt)
    {
-      return new Tetrad( rand.nextInt(types.length), ColorServer.colorIxForTetrad() );
+      return blockOffsets[tx][rt];
    }
 
    /**
@@ -340,6 +394,28 @@ public class Tetrad
     */
    public int getColorIx()  {   return colorIx;   }
 
+   /**
+    * @returns int - the type index of this tetrad, 0 <= type < TYPE_NR
+    */
+   public int getTypeIx()  {   return typeIx;   }
+
+   /**
+    * @returns int - the orientation of this tetrad, 0 - 3
+    */
+   public int getRotation()  {   return rotation;   }
+
+   /**
+    * @returns Tetrad - a new tetrad of the same type, orientation,
+    *                   position and color
+    */
+   public Tetrad copy()
+   {
+      Tetrad tetrad = new Tetrad(typeIx, colorIx);
+      tetrad.rotation = rotation;
+      tetrad.setPos(colIx, rowIx);
+      return tetrad;
+   }
+
    /**
     * Used by tetris to drop down this tetrad one rows down
     * pre-condition: the trop down must be valid (will not hit
@@ -347,6 +423,14 @@ public class Tetrad
     */
    public void dropDownOneRow()  {  ++rowIx;  }
 
+   /**
+    * Used by tetris to hard drop this tetrad
+    * pre-condition: the drop down must be valid (will not hit
+    *                any fixed tetrad blocks
+    * @param int: how many rows to drop
+    */
+   public void dropDown(int rows)  {  rowIx += rows;  }
+
    /**
     * Used by tetris to shift this tetrad at its current row
     * pre-condition: the shift must be valid (will not hit any fixed tetrad blocks)
@@ -403,25 +487,46 @@ public class Tetrad
     */
    public Point[] getBlockPos(int rta)
    {
-      rta += rotation;
-      if ( rta < 0 ) rta = 3;
-      else if ( rta >= 4 ) rta = 0;
+      int[] offsets = blockOffsets[typeIx][rotationAfter(rta)];
 
       Point[] blkPosArray = new Point[4];
-
-      int[][] activeBlocks = types[typeIx][rta];
-      int count = 0;
-      for ( int r = 0;  r < activeBlocks.length && count < 4; r++ ) {
-         for ( int c = 0; c < activeBlocks[r].length && count < 4; c++  ) {
-            if ( activeBlocks[r][c] == 1 ) {
-               blkPosArray[count] = new Point(colIx + c, rowIx + r);
-               count++;
-            }
-         }
+      for ( int ix = 0; ix < 4; ++ix ) {
+         blkPosArray[ix] = new Point(colIx + offsets[2*ix], rowIx + offsets[2*ix + 1]);
       }
       return blkPosArray;
    }
 
+   /**
+    * The allocation free version of getBlockPos(int)
+    *
+    * @param rta = 0: block positions in the current configuration
+    *             -1: block positions after rotate anti-clockwise
+    *              1: block positions after rotate clockwise
+    * @param int[]: the buffer (length >= 8) to receive the positions as
+    *               {c0, r0, c1, r1, c2, r2, c3, r3}, in the same order as
+    *               the points returned by getBlockPos(int)
+    */
+   public void getBlockPos(int rta, int[] pos)
+   {
+      int[] offsets = blockOffsets[typeIx][rotationAfter(rta)];
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         pos[ix] = colIx + offsets[ix];
+         pos[ix + 1] = rowIx + offsets[ix + 1];
+      }
+   }
+
+   /*
+    * @param rta: -1, 0 or 1 - the rotation to apply to the current orientation
+    * @return int: the orientation after the rotation
+    */
+   private int rotationAfter(int rta)
+   {
+      rta += rotation;
+      if ( rta < 0 ) rta = 3;
+      else if ( rta >= 4 ) rta = 0;
+      return rta;
+   }
+
    /**
     * @returns String: the tetrad's attribute values in a string (debug)
     */
@@ -0,0 +1,157 @@
+/**
+ * Class TetradPreview shows the upcoming tetrads on the info area: the
+ * stand-by tetrad and the tetrads of the preview after it, left to right.
+ *
+ * The stand-by tetrad is shown in a grid box (class GridBoard) with one
+ * empty row/colum on each side of the tetrad blocks, centered in its area.
+ * The tetrads of the preview are shown in smaller boxes, left to right, in
+ * a second area (a strip), one slot of the strip each.
+ *
+ * Nothing is created on a paint unless something changed:
+ *   - the areas are given as plain values and kept in place; the boxes
+ *     are created once for every slot and tetrad type, and kept until the
+ *     area of the preview (the panel size) changes
+ *   - the tetrads shown in the boxes (copies placed at their best show
+ *     position) are created when the tetrads of the snapshot change
+ */
+
+import java.util.*;
+import java.awt.*;
+import java.awt.Graphics2D;
+import java.awt.BasicStroke;
+
+class TetradPreview
+{
+   // the cells of the preview boxes are smaller than the stand-by box cells
+   private static final double PREVIEW_CELL_SHARE = 0.6;
+
+   // the number of slots: the stand-by tetrad and the preview
+   private int slotNr = 0;
+
+   // the area of the stand-by box, the strip of the preview boxes (empty if no preview)
+   private Rectangle area = new Rectangle();
+   private Rectangle strip = new Rectangle();
+   // the largest cell size allowed
+   private int maxCellSize = 0;
+
+   // the thickness of the grid lines of the boxes
+   private BasicStroke lineStroke = new BasicStroke(1.2f);
+
+   // boxes[slot][type] - the box of a tetrad type in the slot, null until needed
+   private GridBoard[][] boxes = null;
+   // the tetrads of the snapshot shown in the slots, their copies in the boxes
+   private Tetrad[] shownFor = null;
+   private Tetrad[] shown = null;
+
+   /**
+    * Set the area of the stand-by box - the boxes are dropped if it changed
+    * @param int - the left of the area in the tetris panel
+    * @param int - its top
+    * @param int - its width
+    * @param int - its height
+    * @param int maxCell - the largest side length of the box cells
+    */
+   void setArea(int x, int y, int width, int height, int maxCell)
+   {
+      if ( sameBounds(area, x, y, width, height) && maxCellSize == maxCell ) return;
+      area.setBounds(x, y, width, height);
+      maxCellSize = maxCell;
+      boxes = null;
+   }
+
+   /**
+    * Set the strip of the preview boxes - the boxes are dropped if it changed
+    * @param int - the left of the strip in the tetris panel
+    * @param int - its top
+    * @param int - its width, 0 if no preview
+    * @param int - its height
+    */
+   void setStrip(int x, int y, int width, int height)
+   {
+      if ( sameBounds(strip, x, y, width, height) ) return;
+      strip.setBounds(x, y, width, height);
+      boxes = null;
+   }
+
+   /*
+    * @return boolean: true if the rectangle has the bounds
+    */
+   private static boolean sameBounds(Rectangle r, int x, int y, int width, int height)
+   {
+      return r.x == x && r.y == y && r.width == width && r.height == height;
+   }
+
+   /**
+    * display the stand-by tetrad and the preview of the snapshot
+    * pre-condition: setArea called
+    * @param Graphics2D - where to display
+    * @param BoardSnapshot - the tetrads to show
+    * @param boolean - true: light colors; false: normal colors
+    */
+   void display(Graphics2D g, BoardSnapshot snapshot, boolean lightColor)
+   {
+      Tetrad next = snapshot.getNextTetrad();
+      if ( next == null || area.isEmpty() ) return;
+
+      int nr = strip.isEmpty() ? 1 : 1 + snapshot.getPreviewNr();
+      if ( boxes == null || nr != slotNr ) {
+         slotNr = nr;
+         boxes = new GridBoard[slotNr][Tetrad.TYPE_NR];
+         shownFor = new Tetrad[slotNr];
+         shown = new Tetrad[slotNr];
+      }
+
+      for ( int slot = 0; slot < slotNr; slot++ ) {
+         Tetrad tetrad = ( slot == 0 ) ? next : snapshot.getPreviewTetrad(slot - 1);
+         if ( tetrad != shownFor[slot] ) {
+            // the snapshot is not modified - show a copy
+            shownFor[slot] = tetrad;
+            shown[slot] = tetrad.copy();
+            Point showPos = Tetrad.getBestShowPos(shown[slot]);
+            shown[slot].setPos(showPos.x, showPos.y);
+         }
+
+         GridBoard box = boxes[slot][tetrad.getTypeIx()];
+         if ( box == null ) {
+            box = createBox(slot, tetrad);
+            boxes[slot][tetrad.getTypeIx()] = box;
+         }
+         if ( box.cellSize() <= 0 ) continue;
+         box.displayBoard(g, lightColor);                          // the grid
+         box.displayTetrad(g, shown[slot], lightColor, false);     // the tetrad
+      }
+   }
+
+   /*
+    * the box for a tetrad type in a slot
+    *  - the box grid numbers depends on the type of the tetrad
+    *  - the box is centered in the slot
+    */
+   private GridBoard createBox(int slot, Tetrad tetrad)
+   {
+      Point tetradSize = Tetrad.getSize(tetrad);
+      int nrRow = tetradSize.y + 2;
+      int nrCol = tetradSize.x + 2;
+
+      // the slot: its area and the colums of space it leaves around the box
+      Rectangle slotArea = area;
+      int slotWidth = area.width;
+      int spaceCol = 3;
+      int maxCell = maxCellSize;
+      if ( slot > 0 ) {
+         slotArea = strip;
+         slotWidth = strip.width/(slotNr - 1);
+         spaceCol = 1;
+         maxCell = (int)(PREVIEW_CELL_SHARE*maxCellSize);
+      }
+      int slotX = slotArea.x + (slot > 0 ? (slot - 1)*slotWidth : 0);
+
+      int cellSize = Math.min( slotWidth/(nrCol + spaceCol), slotArea.height/nrRow );
+      if ( cellSize > maxCell ) cellSize = maxCell;
+
+      int xPos = slotX + slotWidth/2 - nrCol*cellSize/2;
+      int yPos = slotArea.y + (slotArea.height - nrRow*cellSize)/2;
+      return new GridBoard(nrRow, nrCol, xPos, yPos, cellSize, lineStroke);
+   }
+
+} // end of class TetradPreview
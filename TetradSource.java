@@ -0,0 +1,65 @@
+/**
+ * A tetrad source is the sequence of tetrads coming into play in a game.
+ *
+ * Every game has its own source, seeded on creation: the same seed (and the
+ * same mode) gives the same tetrads, so a game can be replayed exactly and
+ * benchmark runs can be compared. Two modes are provided:
+ *   - RANDOM: every tetrad type is picked at random (the classic behavior)
+ *   - BAG:    the 7-bag randomizer; the 7 types are dealt in a shuffled
+ *             order, then the bag is refilled - no type waits more than 12
+ *             tetrads
+ * The colors are picked at random in both modes.
+ *
+ * The sources use their own SplitMix64 generator, no generator is shared.
+ *
+ * The position of a source in its sequence (its state) can be saved and
+ * restored, with the game (GameEngine.save): a restored source goes on with
+ * the same tetrads.
+ */
+
+import java.nio.ByteBuffer;
+
+public interface TetradSource
+{
+   /**
+    * The randomizer of a source
+    */
+   enum Mode { RANDOM, BAG }
+
+   /**
+    * @return Tetrad: the next tetrad of the sequence
+    */
+   Tetrad next();
+
+   /**
+    * @return long: the seed the source was created with
+    */
+   long getSeed();
+
+   /**
+    * @return Mode: the randomizer of the source
+    */
+   Mode getMode();
+
+   /**
+    * @param ByteBuffer - where to put the state of the source
+    */
+   void saveState(ByteBuffer out);
+
+   /**
+    * @param ByteBuffer - the state saved by saveState of a source of the same mode
+    */
+   void restoreState(ByteBuffer in);
+
+   /**
+    * @param Mode - the randomizer
+    * @param long - the seed
+    * @return TetradSource: a new source, at the start of its sequence
+    */
+   static TetradSource create(Mode mode, long seed)
+   {
+      if ( mode == Mode.BAG ) return new BagTetradSource(seed);
+      return new RandomTetradSource(seed);
+   }
+
+} // end of interface TetradSource
@@ -1,7 +1,12 @@
 /**
- * The tetris is the controller of the game.
+ * The tetris is the view and the controller of the game.
  * It extends the Panel and implements the KeyListener.
  *
+ * The state and the rules of the game live in the GameEngine (no AWT
+ * dependency). The tetris forwards the player instructions to the game loop
+ * (which applies them to the engine on its own thread) and paints the
+ * snapshots of the game the loop publishes.
+ *
  * The pannel is divided logically into two portions:
  *   -  The top portion displays some game information, such as
  *      the instructions, the scores, time played, and the next
@@ -11,14 +16,13 @@
  *      on which the tetrads are shifted, rotated and dropped down.
  *      Once a tetrad touched the ground, it will be fixed on the game board.
  *
- * A tetris has an instance of class GameBoard.
+ * A tetris has an instance of class GameEngine, which owns the GameBoard.
  *
- *   A tetris has a TimerTask scheduled every 50 millisceconds
- *   (defined by the final attirbute period). It calls the movedDown
- *   method determines the tetrad's droping down on the game board
- *   The speed of game (droping down speed) is determined by how often
- *   to call the movedDown method. Hence, the droping down time is always
- *   in multiples of this 50 millisecond
+ *   A tetris has a GameLoop, a thread which advances the engine by the time
+ *   passed (measured with System.nanoTime) and sleeps until the next drop down
+ *   is due. The engine determines the tetrad's droping down on the game board:
+ *   once every (50 milliseconds * speed level), not quantized by a timer.
+ *   While the game is paused (or not in progress) the loop sleeps.
  *
  *   When a row of the game board are fully ocuppied by fixed tetrads,
  *     -  the tetrad blocks fixed on that row are removed
@@ -42,9 +46,12 @@
  *     - shift the active tetrad to left or right if feasible;
  *     - rotate the active tetrad clockwise.
  *     - fast drop the active tetrad
+ *     - hard drop the active tetrad (SPACE): drop to the ground and fix it at once
  *     - pause or resume the game
+ *     - turn the autoplay on or off (A): a bot (AutoPlayer) plays the game
+ *       through the same commands as the keys
  *
- *   The tetris calls the methods of its gameboard to check the feasiblity
+ *   The engine calls the methods of its gameboard to check the feasiblity
  *   of tetrad movement request (shift, roate or drop down) on the game board;
  *   if the move is feasible, then call the tetard do the move action
  *
@@ -76,6 +83,7 @@ import java.util.*;
 import java.awt.*;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.image.VolatileImage;
 import java.awt.event.*;
 
 public class Tetris extends Panel implements KeyListener
@@ -94,69 +102,71 @@ public class Tetris extends Panel implements KeyListener
 
    // the height of the info display area (upper part of the panel)
    private int infoHeight = 0;
+
+   // the game: state and rules
+   private GameEngine engine = null;
    /*
-    * A game board is a rowNr x colNr cell grid
-    * the tetrad move (left/right/drop) along the cell grid
+    * A game board is a rowNr x colNr cell grid, owned by the engine.
+    * The tetris sets its position and cell size on the panel when first painted
     */
-   GameBoard gameBoard = null;
+   private GameBoard gameBoard = null;
+
+   // the stand-by tetrad and the preview, shown on the info area
+   private TetradPreview preview = new TetradPreview();
+   // the widest scores message expected - the preview is placed right of it
+   private static final String SCORES_TEMPLATE = "Scores: 000000";
 
    // background color (as the color of game board boundary)
    private Color backColor = ColorServer.getBackColor();
 
-   // the active tetrad, the tetrad in-play
-   Tetrad currTetrad = null;
+   // drives the engine in real time
+   private GameLoop loop = null;
 
-   // the stand-by tetrad, the tetrad that will be in-play next
-   Tetrad nextTetrad = null;
+   // the bot playing the game, null if autoplay is off (event thread only)
+   private AutoPlayer autoPlayer = null;
+   // the autoplay bot looks ahead at the preview (LookaheadSearch)
+   private boolean autoLookahead = false;
+   // the time between two moves of the bot, in milliseconds
+   private static final long AUTO_MOVE_DELAY = 60;
+   private static final long AUTO_RESTART_DELAY = 3000;
 
    /*
-    * how many rows to drop when the fast drop key is pressed
-    * used as a factor to shorten the droping cycle for one row
+    * the snapshot last asked to be repainted (game loop thread only)
+    *  - a new snapshot is compared with it to find the regions to repaint
     */
-   private double   fastDropRowNr = 2.5;
-   // normal drop: 1 row in one drop cycle
-   private double   nextDropRowNr = 1.0;
+   private BoardSnapshot requested = null;
+   // block positions buffer for finding the regions (game loop thread only)
+   private int[] dirtyBlkPos = new int[8];
 
-   // delay before the tetrad starts moving, in milliseconds
-   private final int  delay = 1000;
    /*
-    * frequency of the call to Timertask run, in milliseconds
+    * buffered paiting - the image keeps the last painted picture
+    *  - a volatile image (in video memory where possible), its contents
+    *    may be lost at any time and must then be painted again
+    *  - painted by the event thread (paint) and, in active rendering mode,
+    *    by the game loop thread - only with the renderLock held
     */
-   private final int  period = 50;
+   private VolatileImage backBuffer = null;
+   private final Object renderLock = new Object();
 
-   /* drop down every (period*speedLevel) milliseconds
-    *   14 the slowest - 50*14 = 0.7 seconds drop one row
-    *   12 medium speed - 50*12 = 0.6 seconds drop one row
-    *   10 the fastest - 50*10 = 0.5 second drop one row
-    */
-   private int slowestSpeedLevel = 14;
-   private int speedLevelIncrement = 2;
-   private int fastestSpeedLevel = 10;
-   private int speedLevel = slowestSpeedLevel;
-
-   /* count how many TimerTask cycles passed
-    * implements the speed-up feature:
-    *  - do the drop-down only if the cycleCount reached the speedLevel
-    *  - reset to 0 after each drop-down
+   /*
+    * the key press followed to its paint (see GameMetrics.KEY_TO_PAINT)
+    *  - the time it was pressed, 0 if none is followed
+    *  - the number of commands submitted up to its command
     */
-   private int cycleCount = 0;
-
-   // The scores and level reached
-   private long scores = 0;
-   private int  level = 1;
-   // how long (in millisecond) the game is in-progess
-   private long timePlayed  = 0;
+   private volatile long keyNanos = 0;
+   private volatile long keyCommands = 0;
 
    /*
-    * status variabes of the game
+    * active rendering: the game loop thread paints the regions changed
+    * itself instead of asking the event thread to repaint them
     */
-   private boolean gameStarted = false;
-   private boolean gamePaused = false;
-   private boolean gameOver = false;
+   private volatile boolean activeRendering = false;
 
-   // buffered paiting
-   private Image mImage = null;
-   private Graphics offG = null;
+   /*
+    * raster rendering: the game board pixels are written straight into an
+    * int[] image buffer (null - the board draws itself with the Graphics2D)
+    */
+   private volatile RasterBoardRenderer rasterRenderer = null;
 
    /**
     * Class Constructor specifying the size of the game board and
@@ -166,184 +176,165 @@ public class Tetris extends Panel implements KeyListener
     *  @param info how many rows the info area has
     */
    public Tetris(int row, int col, int info)
+   {
+      this(row, col, info, 1);
+   }
+
+   /**
+    * Class Constructor specifying the size of the game board, the size of
+    * the information diplay area and how many upcoming tetrads are shown.
+    *  @param row  the row number of the game board
+    *  @param col  the column number of the game board
+    *  @param info how many rows the info area has
+    *  @param previewNr how many upcoming tetrads are shown, the stand-by
+    *                   tetrad included (1 to GameEngine.MAX_PREVIEW_NR)
+    */
+   public Tetris(int row, int col, int info, int previewNr)
+   {
+      this( newEngine(row, col, previewNr), info );
+   }
+
+   /**
+    * Class Constructor specifying the game (e.g. a game resumed, see
+    * GameEngine.restore) and the size of the information diplay area.
+    *  @param e    the game, not changed by any other thread from now on
+    *  @param info how many rows the info area has
+    */
+   public Tetris(GameEngine e, int info)
    {
       setBackground(backColor);
 
-      rowNr = row;
-      colNr = col;
+      engine = e;
+      gameBoard = engine.getGameBoard();
+      rowNr = gameBoard.rowNr();
+      colNr = gameBoard.colNr();
       infoHeight = info;
       addKeyListener( this );
 
       /*
-       * The TimerTask  run every 50 millisconds
-       * It calls the movedDown method to drop down the tetard one row
-       * Use cycleCount to control the drop down speed
-       *  (i.e., in how many 50 milliseconds it will call movedDown
+       * The game loop advances the engine by the time passed,
+       * repaint the regions changed when the game changed
        */
-      Timer tm = new Timer() ;
-      TimerTask motion = new TimerTask()
+      loop = new GameLoop( engine, new Runnable()
       {
          public void run()
          {
-            if ( dim != null && gameStarted && !gamePaused && !gameOver ) {
-               timePlayed += period;
-               ++cycleCount;
-               if ( cycleCount >= (int)(speedLevel/nextDropRowNr) ) {
-                  cycleCount = 0;
-                  if ( movedDown() ) repaint();
-               }
-            }
+            repaintChanges( loop.getSnapshot() );
          }
-      };
-      tm.scheduleAtFixedRate( motion, delay, period ) ;
+      });
+      loop.start();
+   }
+
+   private static GameEngine newEngine(int row, int col, int previewNr)
+   {
+      GameEngine e = new GameEngine(row, col);
+      e.setPreviewNr(previewNr);
+      return e;
    }
 
    /**
-    * Reset the status and control variables to default values
-    * Called when a new game is started (Enetr key after game over)
+    * Suspend the game: stop the game loop, pause the game and save it (see
+    * GameEngine.save) - resumed by a tetris created with GameEngine.restore
+    * of the bytes saved. The tetris does not play anymore.
+    * @param WritableByteChannel - where to save the game
     */
-   public void reset()
+   public void suspend(java.nio.channels.WritableByteChannel channel)
+                                throws java.io.IOException, InterruptedException
    {
-      gameOver = false;
-      gamePaused = false;
-      scores = 0;
-      level = 1;
-      timePlayed  = 0;
-      nextDropRowNr = 1;
-      speedLevel = slowestSpeedLevel;
-
-      gameBoard.reset();
+      if ( autoPlayer != null ) autoPlayer.stop();
+      loop.stop();
+      loop.join();
+      // the loop thread is done - the engine can be used here
+      engine.pause();
+      java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate( engine.saveSize() );
+      engine.save(bytes);
+      bytes.flip();
+      while ( bytes.hasRemaining() ) channel.write(bytes);
    }
 
    /**
-    *  Tells if the first game has been started
-    *  @return boolean
+    * @return GameEngine: the game shown by this tetris - changed by the game
+    *                     loop thread only, other threads must not touch it
     */
-   public boolean gameStarted() {  return gameStarted;  }
+   public GameEngine getEngine() {  return engine;  }
 
    /**
-    * Tells if the game is paused
-    * @return boolean
+    * Record the games played on this tetris (see ReplayRecorder)
+    * pre-condition: no game started yet
+    * @param WritableByteChannel - where to write the recording
+    * @return ReplayRecorder: the recorder, to be closed when done
+    * @throws IllegalStateException - if a game was started (see ReplayRecorder)
     */
-   public boolean gamePaused() {  return gamePaused;  }
+   public ReplayRecorder record(java.nio.channels.WritableByteChannel channel)
+   {
+      // the engine is not changed before the first command - its size and source can be read
+      ReplayRecorder recorder = new ReplayRecorder(channel, engine);
+      loop.setRecorder(recorder);
+      return recorder;
+   }
 
    /**
-    *  Tells if the game is over (no tetrad can enter the game board)
-    *  @return boolean
+    * Active rendering: the game loop paints the changes on the screen as
+    * soon as the game changed, not coalesced with other repaint requests
+    * by AWT. The exposed regions are still painted by paint()
+    * @param boolean: true - active rendering; false - passive (repaint)
     */
-   public boolean gameOver() {  return gameOver;  }
+   public void setActiveRendering(boolean active) {  activeRendering = active;  }
 
    /**
-    * Tells if the game is in-progress
-    * @returns boolean
+    * @return boolean: true if the game loop paints the changes itself
     */
-   public boolean gameInProgress()
-   {
-      if ( gameStarted && !gameOver && !gamePaused ) return true;
-      else return false;
-   }
+   public boolean isActiveRendering() {  return activeRendering;  }
 
    /**
-    * @return Tetrad: the active tetrad currently in-play
+    * Raster rendering: paint the game board by writing its pixels into the
+    * int[] buffer of an image, faster than drawing the cells for large boards
+    * @param boolean: true - raster rendering; false - draw with the Graphics2D
     */
-   public Tetrad getCurrTetrad() {  return currTetrad;  }
+   public void setRasterRendering(boolean raster)
+   {
+      rasterRenderer = raster ? new RasterBoardRenderer(gameBoard) : null;
+      repaint();
+   }
 
    /**
-    * @return Tetrad the stand-by tetrad that will be in-play next
+    * @return boolean: true if the game board is painted by raster rendering
     */
-   public Tetrad getNextTetrad() {  return nextTetrad;  }
+   public boolean isRasterRendering() {  return rasterRenderer != null;  }
 
    /**
-    * Do the drop down of the current tetrad if feasible
-    * If the tetrad has touched the ground
-    *  - fix the tetard blocks in its current positions
-    *  - If the drop-down results in full rows
-    *     - clear those full rows
-    *     - drow down tetrad blocks in the rows above
-    *     - update the scores and level of the game
-    *     - update the speed if the scores reached certain levels
-    * Turn the next tetrad to the current tetrad and
-    * try to drop it into the game board,
-    *    - if not possible, i.e., hit fixed tetard blocks in
-    *      its drop position, turn the status to game over
-    *    - if possible, get the next stand-by tetrad
-    *
-    * @return boolean: false if the game is not in-play (e.g, game pause, game over)
-    *                  true otherwise (repaint required)
+    * Turn the autoplay on or off: a bot plays the game at a watchable speed
+    * and starts a new game when the game is over
+    * @param boolean: true - autoplay on; false - off
     */
-   public boolean movedDown()
+   public void setAutoPlay(boolean on)
    {
-      if ( !gameStarted || gamePaused || gameOver || currTetrad == null )
-         return false;
-
-      // the postions (col, row) of the blocks in the cellArray
-      Point[] blkPos = currTetrad.getBlockPos(0);
-
-      /*
-       * check if the drop down feasible
-       */
-      if ( gameBoard.isValidMoveDown(blkPos) ) {
-         // drop down one row
-         currTetrad.dropDownOneRow();
-         nextDropRowNr = 1;  // back to normal in case of fast drop
-         return true;
-      }
-
-      /*
-       * touched the ground - fixed the on the board
-       */
-      gameBoard.placeBlocks(blkPos, currTetrad.getColorIx());
-
-      /*
-       * update the score and the levels
-       */
-      int fullNr = gameBoard.clearFullRows();
-      if ( fullNr > 0 ) {
-         int rowScore = 100;
-         int rowBonus = 50;
-         /* 2nd full row get base bonus
-          * 3nd full row bonus doubled
-          * 4rd full row bonus trippled
-          */
-         for ( int ix = 0; ix < fullNr; ++ix ) {
-            scores += (rowScore + ix*rowBonus);
+      if ( on == (autoPlayer != null) ) return;
+      if ( on ) {
+         autoPlayer = new AutoPlayer(loop, rowNr, colNr, BoardEvaluator.standard());
+         autoPlayer.setMoveDelay(AUTO_MOVE_DELAY);
+         autoPlayer.setAutoRestart(true, AUTO_RESTART_DELAY);
+         if ( autoLookahead ) {
+            autoPlayer.setLookahead( new LookaheadSearch(rowNr, colNr, BoardEvaluator.standard(), null) );
          }
-
-         // increase the level and speed
-         int levelMark = 500;
-         int delta = (int)(scores - levelMark * level);
-         if ( delta > 0 ) {
-            // increase the levels
-            delta = 1 + (int)(delta/levelMark);
-            level += delta;
-            if ( speedLevel > fastestSpeedLevel ) {
-               /* only 3 levels
-                *   - entry (level 1, 2): slowest one drop down
-                *   - intermediate (level 3 - 6): in between
-                *   - advanced (level 7 and up): fastest
-                */
-               if ( level >= 7 ) speedLevel = fastestSpeedLevel;
-               else if ( level >= 3 ) speedLevel = fastestSpeedLevel + speedLevelIncrement;
-            }
-         }
-      }
-
-      /*
-       * activate the stand-by tetrad
-       */
-      setAsCurrTetrad(nextTetrad);
-      if ( !gameBoard.isValidAndEmpty( currTetrad.getBlockPos(0) ) ) {
-         // cannot enter the board - game over
-         gameOver = true;
-         nextTetrad = null;
-         return true;
+         autoPlayer.start();
+      } else {
+         autoPlayer.stop();
+         autoPlayer = null;
       }
+   }
 
-      // new stand-by tetrad
-      setAsNextTetrad(Tetrad.next());
+   /**
+    * @return boolean: true if the autoplay is on
+    */
+   public boolean isAutoPlay() {  return autoPlayer != null;  }
 
-      return true;
-   }
+   /**
+    * Let the autoplay bot look ahead at the stand-by tetrad and the preview
+    * (takes effect when the autoplay is turned on)
+    * @param boolean: true - look ahead; false - the active tetrad only
+    */
+   public void setAutoLookahead(boolean on) {  autoLookahead = on;  }
 
    /**
     * implement keyListener
@@ -351,123 +342,304 @@ public class Tetris extends Panel implements KeyListener
     */
    public void keyPressed( KeyEvent ke)
    {
-      if ( gameBoard == null ) return;
+      if ( dim == null ) return;
+      long pressed = GameMetrics.enabled ? System.nanoTime() : 0;
 
-      boolean repaintFlag = false;
+      int command = CommandQueue.EMPTY;
 
       switch ( ke.getKeyCode() ) {
 
          case KeyEvent.VK_LEFT:         // shift left
-            if ( currTetrad != null && !gameOver && !gamePaused ) {
-               if ( gameBoard.isValidShift(currTetrad.getBlockPos(0), -1) ) {
-                  currTetrad.shift( -1 );
-                  repaintFlag = true;
-               }
-            }
+            command = GameEngine.CMD_SHIFT_LEFT;
             break ;
 
          case KeyEvent.VK_RIGHT:        // shift right
-            if ( currTetrad != null && !gameOver && !gamePaused ) {
-               if ( gameBoard.isValidShift( currTetrad.getBlockPos(0), 1 ) ) {
-                  currTetrad.shift( 1 );
-                  repaintFlag = true;
-               }
-            }
+            command = GameEngine.CMD_SHIFT_RIGHT;
             break ;
 
          case KeyEvent.VK_UP:
          case KeyEvent.VK_PAGE_UP:      // rotate clockwise
-            if ( currTetrad != null && !gameOver && !gamePaused ) {
-              if ( gameBoard.isValidAndEmpty( currTetrad.getBlockPos(1) ) ) {
-                  currTetrad.rotate( 1 );
-                  repaintFlag = true;
-               }
-            }
+            command = GameEngine.CMD_ROTATE;
             break;
 
          case KeyEvent.VK_DOWN:
          case KeyEvent.VK_PAGE_DOWN:    // fast drop
-            if ( currTetrad != null && !gameOver && !gamePaused ) {
-               nextDropRowNr = fastDropRowNr;
-            }
+            command = GameEngine.CMD_FAST_DROP;
+            break;
+
+         case KeyEvent.VK_SPACE:        // hard drop
+            command = GameEngine.CMD_HARD_DROP;
             break;
 
          case KeyEvent.VK_ESCAPE:        // pause
-            if ( gameStarted && !gameOver && !gamePaused ) {
-               gamePaused = true;
-               repaintFlag = true;
-            }
+            command = GameEngine.CMD_PAUSE;
             break;
 
          case KeyEvent.VK_ENTER:     // start or resume the game
-            if ( !gameStarted ) {
-               gameStarted = true;
-               start();
-               repaintFlag = true;
-            } else if ( gameOver ) {
-               reset();
-               start();
-               repaintFlag = true;
-            } else if ( gamePaused ) {
-               gamePaused = false;
-               repaintFlag = true;
-            }
+            command = GameEngine.CMD_ENTER;
+            break;
+
+         case KeyEvent.VK_A:         // autoplay on/off
+            setAutoPlay( !isAutoPlay() );
             break;
       }
 
-      if ( repaintFlag == true ) repaint();
+      // applied in order by the game loop thread, which repaints if the game changed
+      if ( command != CommandQueue.EMPTY && loop.submit(command)
+           && pressed != 0 && keyNanos == 0 ) {
+         // follow the key until its command is painted
+         keyCommands = loop.getCommandsSubmitted();
+         keyNanos = pressed;
+      }
    }
 
    public void keyReleased( KeyEvent ke ) { /* no action */ }
 
    public void keyTyped( KeyEvent ke ) { /* no action */ }
 
+   /*
+    * Called on the game loop thread when a new snapshot is published.
+    * Ask for a repaint of the regions changed since the snapshot last asked
+    * to be repainted, instead of the whole panel:
+    *   - the info area if the scores, level, time played or the upcoming
+    *     tetrads (stand-by and preview, shared by unchanged snapshots) changed
+    *   - on the game board, the rows changed (placed blocks, cleared rows),
+    *     and the cells of the active tetrad and its destination, at their
+    *     old and new positions
+    * A change of the game status (start, pause, resume, game over) changes the
+    * colors of everything - repaint the whole panel.
+    *
+    * @param BoardSnapshot: the new snapshot
+    */
+   private void repaintChanges(BoardSnapshot snapshot)
+   {
+      BoardSnapshot shown = requested;
+      requested = snapshot;
+
+      int cellSize = gameBoard.cellSize();
+      if ( dim == null || shown == null || cellSize <= 0
+           || shown.gameStarted() != snapshot.gameStarted()
+           || shown.gamePaused() != snapshot.gamePaused()
+           || shown.gameOver() != snapshot.gameOver() ) {
+         repaintRegion(0, 0, getWidth(), getHeight());
+         return;
+      }
+
+      // the info area
+      if ( shown.getScores() != snapshot.getScores()
+           || shown.getLevel() != snapshot.getLevel()
+           || shown.getTimePlayed()/1000 != snapshot.getTimePlayed()/1000
+           || shown.getNextTetrad() != snapshot.getNextTetrad() ) {
+         repaintRegion(0, 0, dim.width, infoHeight);
+      }
+
+      // the game board: bounds {top, bottom, left, right} of the changed cells
+      int[] bounds = { rowNr, -1, colNr, -1 };
+      int[][] oldCells = shown.getCells();
+      int[][] newCells = snapshot.getCells();
+      if ( oldCells != newCells ) {
+         // rows not changed are shared between the snapshots
+         for ( int r = 0; r < rowNr; ++r ) {
+            if ( oldCells[r] != newCells[r] ) addDirtyCell(bounds, 0, r, colNr - 1, r);
+         }
+      }
+      addDirtyTetrad( bounds, shown.getCurrTetrad() );
+      addDirtyTetrad( bounds, snapshot.getCurrTetrad() );
+      addDirtyBlocks( bounds, shown.getGhostPos() );
+      addDirtyBlocks( bounds, snapshot.getGhostPos() );
+
+      if ( bounds[1] >= 0 ) {
+         // the grid lines reach 1 pixel into the next cells
+         int x = gameBoard.xPos() + bounds[2]*cellSize - 2;
+         int y = gameBoard.yPos() + bounds[0]*cellSize - 2;
+         repaintRegion( x, y, (bounds[3] - bounds[2] + 1)*cellSize + 4,
+                              (bounds[1] - bounds[0] + 1)*cellSize + 4 );
+      }
+   }
+
+   /*
+    * Repaint a region of the panel
+    *  - passive: ask AWT to repaint it (on the event thread, maybe coalesced)
+    *  - active: paint it now on the screen; fall back to the passive way
+    *    if the panel is not on the screen yet
+    */
+   private void repaintRegion(int x, int y, int width, int height)
+   {
+      if ( !activeRendering || dim == null ) {
+         repaint(x, y, width, height);
+         return;
+      }
+
+      Graphics gr = getGraphics();
+      if ( gr == null ) {
+         repaint(x, y, width, height);
+         return;
+      }
+      try {
+         gr.clipRect(x, y, width, height);
+         render(gr, gr.getClipBounds());
+      } finally {
+         gr.dispose();
+      }
+      // flush the drawing to the screen now (buffered by some window systems)
+      Toolkit.getDefaultToolkit().sync();
+   }
+
+   /*
+    * extend the bounds {top, bottom, left, right} by the blocks of the tetrad
+    */
+   private void addDirtyTetrad(int[] bounds, Tetrad tetrad)
+   {
+      if ( tetrad == null ) return;
+      tetrad.getBlockPos(0, dirtyBlkPos);
+      addDirtyBlocks(bounds, dirtyBlkPos);
+   }
+
+   /*
+    * extend the bounds {top, bottom, left, right} by the blocks {c0, r0, ..., c3, r3}
+    */
+   private void addDirtyBlocks(int[] bounds, int[] blkPos)
+   {
+      if ( blkPos == null ) return;
+      for ( int ix = 0; ix < 8; ix += 2 ) {
+         addDirtyCell(bounds, blkPos[ix], blkPos[ix + 1], blkPos[ix], blkPos[ix + 1]);
+      }
+   }
+
+   /*
+    * extend the bounds {top, bottom, left, right} by the cells [c1, c2] x [r1, r2]
+    */
+   private static void addDirtyCell(int[] bounds, int c1, int r1, int c2, int r2)
+   {
+      if ( r1 < bounds[0] ) bounds[0] = r1;
+      if ( r2 > bounds[1] ) bounds[1] = r2;
+      if ( c1 < bounds[2] ) bounds[2] = c1;
+      if ( c2 > bounds[3] ) bounds[3] = c2;
+   }
+
+   /**
+    * Paint without clearing the background first - paint covers its clip
+    * @param Graphics - where to paint
+    */
+   public void update(Graphics gr)
+   {
+      paint(gr);
+   }
+
    /**
+    * Show the game on the screen (called by AWT on the event thread)
+    * @param Graphics - where to paint
+    */
+   public void paint(Graphics gr)
+   {
+      render(gr, gr.getClipBounds());
+   }
+
+   /*
     * Show the game on the screen.
     *  - call game board to display what's going on
     *  - call private method displayInfo to display required message
     *     (depends on the status of the game)
     *
-    * Use buffered paint: first paint on an image and then on the screen
+    * Use buffered paint: first paint on a volatile image and then on the screen
+    * The image is kept between two paints, only the clip (the region asked
+    * to be repainted) is painted again on it and put on the screen - unless
+    * the image is new or its contents were lost, then all of it is painted.
+    * If the contents are lost while being put on the screen, paint again.
     *
-    * When called first time, it creates the gameboard.
+    * When called first time, it sets the geometry of the gameboard.
     * In the contructor as getSize() returns a 0 by 0 dimension
     *
     * @param Graphics - where to paint
+    * @param Rectangle - the region to paint, null for the whole panel
     */
-   public void paint(Graphics gr)
+   private void render(Graphics gr, Rectangle clip)
    {
-      if ( dim == null ) {
-         dim = getSize();
-         int cellSize = calculateCellSize();
-         // top-left position of the game board
-         double xPos = (dim.width - cellSize*colNr) / 2;
-         double yPos = dim.height - xPos - cellSize*rowNr;
-
-         gameBoard = new GameBoard( this, rowNr, colNr,
-                                   (int)xPos, (int)yPos,
-                                    cellSize, new BasicStroke(2.0f) );
-         // turn the infoHeight to a physic height (not row number anymore)
-         infoHeight = (int)yPos;
-      } else {
-         dim = getSize();
-      }
-
-      if ( mImage == null || mImage.getWidth(null) != dim.height
-                          || mImage.getHeight(null) != dim.height ) {
-         mImage = createImage(dim.width, dim.height);
-      }
+      synchronized ( renderLock ) {
+         boolean timed = GameMetrics.enabled;
+         long start = timed ? System.nanoTime() : 0;
+         long startBytes = timed ? GameMetrics.allocatedBytes() : 0;
+
+         if ( dim == null ) {
+            dim = getSize();
+            int cellSize = calculateCellSize();
+            // top-left position of the game board
+            double xPos = (dim.width - cellSize*colNr) / 2;
+            double yPos = dim.height - xPos - cellSize*rowNr;
+
+            gameBoard.setGeometry( (int)xPos, (int)yPos,
+                                   cellSize, new BasicStroke(2.0f) );
+            // turn the infoHeight to a physic height (not row number anymore)
+            infoHeight = (int)yPos;
+         } else {
+            dim = getSize();
+         }
+         if ( dim.width <= 0 || dim.height <= 0 ) return;
+
+         Rectangle region = clip;
+         // the commands shown by the snapshot painted
+         long shown = 0;
+         do {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            int status = VolatileImage.IMAGE_INCOMPATIBLE;
+            if ( backBuffer != null && gc != null ) status = backBuffer.validate(gc);
+
+            if ( backBuffer == null || status == VolatileImage.IMAGE_INCOMPATIBLE
+                 || backBuffer.getWidth() != dim.width
+                 || backBuffer.getHeight() != dim.height ) {
+               if ( backBuffer != null ) backBuffer.flush();
+               backBuffer = createVolatileImage(dim.width, dim.height);
+               // not displayable (yet)
+               if ( backBuffer == null ) return;
+               status = VolatileImage.IMAGE_RESTORED;
+            }
+            // a new or restored image - paint all of it
+            if ( status == VolatileImage.IMAGE_RESTORED || region == null )
+               region = new Rectangle(0, 0, dim.width, dim.height);
+
+            // buffered paint, only the region
+            Graphics2D offG = backBuffer.createGraphics();
+            try {
+               offG.setClip(region);
+               offG.setColor(getBackground());
+               offG.fillRect(region.x, region.y, region.width, region.height);
+
+               shown = loop.getCommandsApplied();
+               BoardSnapshot snapshot = loop.getSnapshot();
+               RasterBoardRenderer raster = rasterRenderer;
+               if ( raster != null ) {
+                  raster.display(offG, snapshot);
+               } else {
+                  gameBoard.display(offG, snapshot);
+               }
+               infoDisplay(offG, snapshot);
+            } finally {
+               offG.dispose();
+            }
 
-      // buffered paint
-      offG = mImage.getGraphics();
-      offG.setColor(getBackground());
-      offG.fillRect(0, 0, dim.width, dim.height);
+            // put the offscreen image on the screen (gr is clipped to the clip)
+            gr.drawImage(backBuffer, 0, 0, null);
+         } while ( backBuffer.contentsLost() );
 
-      gameBoard.display(offG, currTetrad);
-      infoDisplay(offG, nextTetrad);
+         if ( timed ) {
+            GameMetrics.painted(start, startBytes);
+            keyPainted(shown);
+         }
+      }
+   }
 
-      // put the offscreen image on the screen.
-      gr.drawImage(mImage, 0, 0, null);
+   /*
+    * The commands up to the given number are on the screen: the key press
+    * followed is counted if its command is among them
+    * @param long - the number of commands applied in the snapshot painted
+    */
+   private void keyPainted(long shown)
+   {
+      long pressed = keyNanos;
+      if ( pressed != 0 && shown >= keyCommands ) {
+         GameMetrics.KEY_TO_PAINT.record( System.nanoTime() - pressed );
+         keyNanos = 0;
+      }
    }
 
    /*
@@ -484,17 +656,23 @@ public class Tetris extends Panel implements KeyListener
     *          - in the middle of the info area, display the stand-by tetrad
     *            in a grid box; the tetrad is placed in the center of the box
     *            (with one empty row/colum on each side of the tetrad blocks)
+    *            and the preview tetrads right of it (see TetradPreview)
     *         Use light colors if the game is paused, nromal colors otherwise
     *
     *         if game paused: message "Press ENTER to Resume" on the
     *                         foreground of the game board
     *
     * @param Graphics: where to display
-    * @param Tetrad: the stand-by tetrad
+    * @param BoardSnapshot: the state of the game to display
     */
-   private void infoDisplay(Graphics gr, Tetrad nextTetrad)
+   private void infoDisplay(Graphics gr, BoardSnapshot snapshot)
    {
       Graphics2D g = (Graphics2D)gr;
+      boolean gameStarted = snapshot.gameStarted();
+      boolean gameOver = snapshot.gameOver();
+      boolean gamePaused = snapshot.gamePaused();
+      long scores = snapshot.getScores();
+      long timePlayed = snapshot.getTimePlayed();
       int edgeWidth = gameBoard.xPos();
       int centerX = (int)(dim.width/2);
 
@@ -549,7 +727,7 @@ public class Tetris extends Panel implements KeyListener
       String msg = "Scores: " + scores;
       int leftEnd = edgeWidth + g.getFontMetrics().stringWidth(msg);
       g.drawString( msg, edgeWidth, (int)(infoHeight/3) );
-      g.drawString( " Level: " + level,  edgeWidth, (int)(infoHeight*2/3) );
+      g.drawString( " Level: " + snapshot.getLevel(),  edgeWidth, (int)(infoHeight*2/3) );
 
       // the clock/timer
       msg = "Timer: ";
@@ -584,35 +762,24 @@ public class Tetris extends Panel implements KeyListener
       /*
        * the stand-by tetrad in the middle area
        * show the tetrad in the middle between the score msg and the timer msg
-       *  - the box grid numbers depends on the type of the tetrad
+       * the preview (if any) in a strip across the info area, below the
+       * level and clock msgs
+       *  - the areas do not depend on the scores, the boxes are kept
+       *    until the panel size changes
        */
-      if ( nextTetrad != null ) {
-         Point tetradSize = Tetrad.getSize(nextTetrad);
-         int nrRow = tetradSize.y + 2;
-         int nrCol = tetradSize.x + 2;
-         int maxWidth = 2*Math.min(centerX - leftEnd, rightStart - centerX);
-         int maxHeight = infoHeight - 2*gameBoard.cellSize();
-
-         int cellSize = (int)(Math.min( maxWidth/(nrCol + 3), maxHeight/nrRow ));
-         if (cellSize > 0.8*gameBoard.cellSize() )
-            cellSize = (int)(0.8*gameBoard.cellSize());
-
-         int xPos = centerX - (int)(nrCol*cellSize)/2;
-         int yPos = gameBoard.cellSize() + (maxHeight - nrRow*cellSize)/2;
-
-         Point pos = nextTetrad.getPos();
-         Point showPos = Tetrad.getBestShowPos(nextTetrad);
-         nextTetrad.setPos(showPos.x, showPos.y);
-
-         GridBoard showBox = new GridBoard(nrRow, nrCol, xPos, yPos,
-                                           cellSize, new BasicStroke(1.2f));
-         boolean lightColor = false;
-         if ( gamePaused ) lightColor = true;
-         showBox.displayBoard(g, lightColor);                     // the grid
-         showBox.displayTetrad(g, nextTetrad, lightColor, false); // the tetrad
-
-         nextTetrad.setPos(pos.x, pos.y);
+      int scoresEnd = edgeWidth + g.getFontMetrics().stringWidth(SCORES_TEMPLATE);
+      int maxWidth = 2*Math.min(centerX - Math.max(leftEnd, scoresEnd), rightStart - centerX);
+      int maxHeight = infoHeight - 2*gameBoard.cellSize();
+      if ( snapshot.getPreviewNr() > 0 ) {
+         int stripTop = infoHeight*2/3 + g.getFontMetrics().getDescent() + 4;
+         preview.setStrip( edgeWidth, stripTop, dim.width - 2*edgeWidth, infoHeight - stripTop - 2 );
+         maxHeight = stripTop - gameBoard.cellSize();
+      } else {
+         preview.setStrip(0, 0, 0, 0);
       }
+      preview.setArea( centerX - maxWidth/2, gameBoard.cellSize(), maxWidth, maxHeight,
+                       (int)(0.8*gameBoard.cellSize()) );
+      preview.display(g, snapshot, gamePaused);
 
       if ( gamePaused ) {
          // game paused - resume instruction on the game board
@@ -626,39 +793,6 @@ public class Tetris extends Panel implements KeyListener
       }
    }
 
-   /*
-    * set the droping position such that the tetrad
-    * will not skip the first row
-    */
-   private void setAsCurrTetrad(Tetrad tetrad )
-   {
-      currTetrad = tetrad;
-      currTetrad.setPos(6, 0 - tetrad.getTopIndent());
-      nextDropRowNr = 1;
-   }
-
-   /*
-    * we determine the size of the show box based on the real size
-    * of the tetard (add one exta row/column on each side)
-    * Set the stand-by tetrad position to (0, 0) will display it
-    * in the center of the show box
-    */
-   private void setAsNextTetrad(Tetrad tetrad)
-   {
-      nextTetrad = tetrad;
-      // postion in the show box
-      nextTetrad.setPos(0, 0);
-   }
-
-   /*
-    * start a game
-    */
-   private void start()
-   {
-      setAsCurrTetrad( Tetrad.next() );
-      setAsNextTetrad( Tetrad.next() );
-   }
-
    /**
     * caculate the cell size on the game board; called when we create the gameboard
     *  dim != null must hold
@@ -670,10 +804,11 @@ public class Tetris extends Panel implements KeyListener
    {
       int vertical = dim.height / (rowNr + infoHeight + 2);
       int horizontal = dim.width / (colNr + 2);
+      // a pixel at least, for a board larger than the screen
       if ( vertical > horizontal ) {
-         return horizontal;
+         return Math.max(1, horizontal);
       }
-      return vertical;
+      return Math.max(1, vertical);
    }
 
 } // end of class Tetris
\ No newline at end of file
@@ -0,0 +1,183 @@
+/**
+ * Class TranspositionTable caches the evaluations of boards by their Zobrist
+ * hash (GameBoard.getHash), for a search reaching the same board by
+ * placements in a different order (LookaheadSearch).
+ *
+ * The table has a fixed size, given in megabytes when it is created - it
+ * never grows, so it stays bounded however long it is used:
+ *   - the entries are in one long[]: two longs per entry, the key XOR the
+ *     data and the data
+ *   - the entries are in buckets of BUCKET_SIZE; a key goes to the bucket
+ *     of its low bits
+ *   - a new key replaces an entry of its bucket: an empty one, else the one
+ *     its high bits pick (random replacement - old entries leave by chance,
+ *     recent ones are found while they are used)
+ *
+ * The table is lock free: the threads read and write the entries without
+ * any synchronization. An entry written by two threads at once may mix the
+ * longs of both; such an entry does not check (key XOR data XOR data is not
+ * the key), so it is a miss and never a wrong hit.
+ *
+ * The hash tells apart the boards of up to GameBoard.HASHED_ROW_NR rows
+ * only: the cell keys repeat every 64 rows (a row drop rotates the keys by
+ * the rows dropped). A search on a higher board does not use the table.
+ *
+ * The data of an entry is a score and the number of lines removed, packed
+ * into one long (pack, score, lines). The hits and misses are counted for
+ * the hit rate (LongAdder - the threads do not contend on a counter).
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class TranspositionTable
+{
+   // the result of probe for a key not in the table (a NaN never packed)
+   public static final long MISS = -1L;
+
+   private static final int BUCKET_SIZE = 4;
+   private static final long BYTES_PER_MB = 1L << 20;
+   // the low bits of the data keep the lines removed (0 - 4)
+   private static final int LINE_BITS = 3;
+   private static final long LINE_MASK = (1L << LINE_BITS) - 1;
+
+   // the entries: table[2*ix] = key ^ data, table[2*ix + 1] = data
+   private final long[] table;
+   private final int bucketMask;
+
+   // statistics
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder stores = new LongAdder();
+
+   /**
+    * Constructor
+    * @param int - the size of the table in megabytes (rounded down to a
+    *              power of two number of buckets, at least one bucket)
+    */
+   public TranspositionTable(int megabytes)
+   {
+      long entries = megabytes*BYTES_PER_MB/16;
+      long buckets = Long.highestOneBit( Math.max(1, entries/BUCKET_SIZE) );
+      // one long[] holds up to 2^30 longs (8 GB) here
+      buckets = Math.min(buckets, 1L << 27);
+      table = new long[(int)buckets*BUCKET_SIZE*2];
+      bucketMask = (int)buckets - 1;
+   }
+
+   /**
+    * @param long - the hash of the board
+    * @return long: the data kept for the hash, MISS if none
+    */
+   public long probe(long key)
+   {
+      if ( key == 0 ) key = 1;   // an empty entry checks for key 0
+      int base = ((int)key & bucketMask)*BUCKET_SIZE*2;
+      for ( int ix = base; ix < base + BUCKET_SIZE*2; ix += 2 ) {
+         long data = table[ix + 1];
+         if ( (table[ix] ^ data) == key ) {
+            hits.increment();
+            return data;
+         }
+      }
+      misses.increment();
+      return MISS;
+   }
+
+   /**
+    * Keep the data for a hash, replacing an entry of its bucket
+    * @param long - the hash of the board
+    * @param long - the data (see pack)
+    */
+   public void store(long key, long data)
+   {
+      if ( key == 0 ) key = 1;
+      int base = ((int)key & bucketMask)*BUCKET_SIZE*2;
+      int victim = base + ((int)(key >>> 62) & (BUCKET_SIZE - 1))*2;
+      for ( int ix = base; ix < base + BUCKET_SIZE*2; ix += 2 ) {
+         long stored = table[ix] ^ table[ix + 1];
+         if ( stored == key || stored == 0 ) {
+            victim = ix;
+            break;
+         }
+      }
+      table[victim] = key ^ data;
+      table[victim + 1] = data;
+      stores.increment();
+   }
+
+   /**
+    * empty the table, the statistics reset
+    */
+   public void clear()
+   {
+      java.util.Arrays.fill(table, 0L);
+      hits.reset();
+      misses.reset();
+      stores.reset();
+   }
+
+   /**
+    * @param double - a score
+    * @param int - the lines removed, 0 - 4
+    * @return long: the data of an entry - the score loses its lowest 3 bits
+    *               (keep the packed score also when not found in the table,
+    *               so a hit and a miss give the same score)
+    */
+   public static long pack(double score, int lines)
+   {
+      return (Double.doubleToLongBits(score) & ~LINE_MASK) | lines;
+   }
+
+   /**
+    * @param long: the data of an entry
+    * @return double: its score
+    */
+   public static double score(long data) {  return Double.longBitsToDouble(data & ~LINE_MASK);  }
+
+   /**
+    * @param long: the data of an entry
+    * @return int: its lines removed
+    */
+   public static int lines(long data) {  return (int)(data & LINE_MASK);  }
+
+   /**
+    * @return int: the number of entries the table can keep
+    */
+   public int getCapacity() {  return table.length/2;  }
+
+   /**
+    * @return long: the memory used by the table, in bytes
+    */
+   public long getFootprint() {  return 8L*table.length;  }
+
+   /**
+    * @return long: the probes finding their key
+    */
+   public long getHits() {  return hits.sum();  }
+
+   /**
+    * @return long: the probes not finding their key
+    */
+   public long getMisses() {  return misses.sum();  }
+
+   /**
+    * @return double: the share of the probes finding their key, 0 - 1
+    */
+   public double getHitRate()
+   {
+      long h = hits.sum();
+      long total = h + misses.sum();
+      return total == 0 ? 0 : (double)h/total;
+   }
+
+   /**
+    * @return String: the statistics of the table
+    */
+   public String toString()
+   {
+      return String.format("%d entries (%.1f MB), %d probes, hit rate %.1f%%, %d stores",
+                           getCapacity(), getFootprint()/(double)BYTES_PER_MB,
+                           getHits() + getMisses(), 100*getHitRate(), stores.sum());
+   }
+
+} // end of class TranspositionTable
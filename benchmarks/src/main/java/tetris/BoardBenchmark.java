@@ -0,0 +1,101 @@
+/**
+ * Class BoardBenchmark measures the checks and the changes of a game board
+ * the game and the bots run for every move (see GameBoard):
+ *   - isValidShift, isValidMoveDown, isValidAndEmpty, getDestPos - the
+ *     block positions checked go round the fixture's random positions
+ *   - placeBlocks and clearFullRows: an I tetrad dropped into the well of
+ *     the board (clearing its bottom 4 rows once the stack reaches them),
+ *     on a fresh copy of the fixture board - copyBoard measures the copy
+ *     alone, to subtract
+ * The boards are parameterized by their size and fill (see BoardFixture):
+ *    java -jar target/benchmarks.jar BoardBenchmark -p rows=1000 -p cols=100
+ */
+
+package tetris;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark
+{
+   @Param({ "23" })
+   public int rows;
+
+   @Param({ "16" })
+   public int cols;
+
+   // the share of the rows the stack takes
+   @Param({ "0", "0.4", "0.8" })
+   public double fill;
+
+   private BoardFixture fixture;
+   private GameBoard board;
+   private int[][] positions;
+   private int[] dest = new int[8];
+   private int ix = 0;
+
+   @Setup
+   public void setUp()
+   {
+      fixture = new BoardFixture(rows, cols, fill);
+      positions = fixture.positions;
+      board = new GameBoard(rows, cols);
+      board.copyFrom(fixture.board);
+   }
+
+   /*
+    * the next block positions to check
+    */
+   private int[] next()
+   {
+      ix = (ix + 1) & (BoardFixture.POSITION_NR - 1);
+      return positions[ix];
+   }
+
+   @Benchmark
+   public boolean isValidShift()
+   {
+      return board.isValidShift( next(), (ix & 1) == 0 ? -1 : 1 );
+   }
+
+   @Benchmark
+   public boolean isValidMoveDown()
+   {
+      return board.isValidMoveDown( next() );
+   }
+
+   @Benchmark
+   public boolean isValidAndEmpty()
+   {
+      return board.isValidAndEmpty( next() );
+   }
+
+   @Benchmark
+   public int[] getDestPos()
+   {
+      board.getDestPos( next(), dest );
+      return dest;
+   }
+
+   @Benchmark
+   public long copyBoard()
+   {
+      board.copyFrom(fixture.board);
+      return board.getHash();
+   }
+
+   @Benchmark
+   public int placeAndClear()
+   {
+      board.copyFrom(fixture.board);
+      board.placeBlocks(fixture.wellDrop, 1);
+      return board.clearFullRows();
+   }
+
+} // end of class BoardBenchmark
@@ -0,0 +1,70 @@
+/**
+ * Class BoardFixture builds the boards the benchmarks run on, by their fill:
+ * the stack takes the given share of the rows (0 - an empty board), every
+ * cell of the stack is occupied with a chance of 3/4, but a well colum
+ * (the last one) is kept empty. The bottom 4 rows of the stack are full but
+ * for the well: an I tetrad dropped into the well clears them.
+ *
+ * It also picks tetrad block positions to check, spread over the rows
+ * above the bottom of the board - some of them hit the stack, some do not.
+ * The fixture is the same for the same arguments (a seeded generator).
+ */
+
+package tetris;
+
+import java.util.Random;
+
+class BoardFixture
+{
+   // the number of block positions checked, a power of two
+   static final int POSITION_NR = 256;
+
+   private static final long SEED = 42;
+   // the I tetrad
+   private static final int TYPE_I = 0;
+
+   final int rowNr;
+   final int colNr;
+   final GameBoard board;
+   // block positions {c0, r0, ..., c3, r3} of random tetrads
+   final int[][] positions = new int[POSITION_NR][8];
+   // the I tetrad standing at the bottom of the well
+   final int[] wellDrop = new int[8];
+
+   /**
+    * Constructor
+    * @param int - the row number of the board
+    * @param int - the colum number of the board
+    * @param double - the share of the rows the stack takes, 0 - 1
+    */
+   BoardFixture(int row, int col, double fill)
+   {
+      rowNr = row;
+      colNr = col;
+      board = new GameBoard(rowNr, colNr);
+      Random random = new Random(SEED);
+
+      int height = (int)Math.round( fill*rowNr );
+      int[][] cells = new int[rowNr][colNr];
+      for ( int r = rowNr - height; r < rowNr; r++ ) {
+         boolean bottom = r >= rowNr - 4;
+         for ( int c = 0; c < colNr - 1; c++ ) {
+            if ( bottom || random.nextInt(4) > 0 ) cells[r][c] = 1 + random.nextInt(7);
+         }
+      }
+      board.loadCells(cells);
+
+      for ( int[] pos : positions ) {
+         Tetrad tetrad = Tetrad.next( random.nextInt(Tetrad.TYPE_NR), 1 );
+         for ( int rt = random.nextInt(4); rt > 0; rt-- ) tetrad.rotate(1);
+         tetrad.setPos( random.nextInt(colNr - 3), random.nextInt(rowNr - 3) );
+         tetrad.getBlockPos(0, pos);
+      }
+
+      Tetrad well = Tetrad.next(TYPE_I, 1);
+      well.rotate(1);
+      well.setPos(colNr - 2, rowNr - 4);   // the blocks are in the 2nd colum of the 4*4
+      well.getBlockPos(0, wellDrop);
+   }
+
+} // end of class BoardFixture
@@ -0,0 +1,100 @@
+/**
+ * Class GameBenchmark measures whole games, headless (see BatchSimulator):
+ * an invocation plays a game from a new seed to its end or to the placement
+ * limit, by one of the policies
+ *   - random: random rotations and shifts, then a hard drop - the engine
+ *     (moves, drops, clears, the tetrad source) dominates
+ *   - lookahead: the bot's search over the stand-by tetrad (on one thread,
+ *     without a time budget, so the games are the same on every run)
+ * Besides the time per game, the placements are counted (placements/s in
+ * the results, see Counters).
+ */
+
+package tetris;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark
+{
+   @Param({ "random", "lookahead" })
+   public String policy;
+
+   @Param({ "23" })
+   public int rows;
+
+   @Param({ "16" })
+   public int cols;
+
+   // a game stops after this many placements
+   @Param({ "500" })
+   public long maxPlacements;
+
+   private static final long NANOS_PER_MILLI = 1000000L;
+
+   private BatchSimulator simulator;
+   private ForkJoinPool pool;
+   private int game = 0;
+
+   /**
+    * The placements and the lines of the games played, reported by JMH
+    * per second next to the games
+    */
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters
+   {
+      public long placements;
+      public long lines;
+
+      @Setup(Level.Iteration)
+      public void clear()
+      {
+         placements = 0;
+         lines = 0;
+      }
+   }
+
+   @Setup
+   public void setUp()
+   {
+      simulator = new BatchSimulator(rows, cols, maxPlacements);
+      simulator.setPreviewNr(2);
+      pool = new ForkJoinPool(1);
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      pool.shutdown();
+   }
+
+   @Benchmark
+   public GameEngine playGame(Counters counters)
+   {
+      long seed = BatchSimulator.gameSeed(1, game++);
+      GamePolicy player;
+      if ( policy.equals("random") ) {
+         player = new BatchSimulator.RandomPolicy(seed);
+      } else {
+         LookaheadSearch search = new LookaheadSearch(rows, cols, BoardEvaluator.standard(), pool);
+         search.setMaxDepth(2);
+         search.setBeamWidth(16);
+         // no time limit (as LookaheadSearch.main): the same searches on every run
+         search.setTimeBudget(Long.MAX_VALUE/NANOS_PER_MILLI);
+         player = new LookaheadSearch.LookaheadPolicy(search);
+      }
+      GameEngine engine = simulator.play(seed, player);
+      counters.placements += engine.getPlacements();
+      counters.lines += engine.getLinesCleared();
+      return engine;
+   }
+
+} // end of class GameBenchmark
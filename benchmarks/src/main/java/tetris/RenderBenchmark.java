@@ -0,0 +1,79 @@
+/**
+ * Class RenderBenchmark measures the drawing of the game board offscreen:
+ * GridBoard.displayBoard with the colors of the fixture board (as a
+ * snapshot has them) into a BufferedImage, headless
+ *   - the whole board, as painted after a resize or a clear
+ *   - one row only (the clip of a repaint of the moving tetrad's region -
+ *     displayBoard draws the cells inside the clip)
+ * The boards are parameterized by their fill and the cell size.
+ */
+
+package tetris;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderBenchmark
+{
+   @Param({ "23" })
+   public int rows;
+
+   @Param({ "16" })
+   public int cols;
+
+   @Param({ "0", "0.4", "0.8" })
+   public double fill;
+
+   // the side length of the cells, in pixels
+   @Param({ "22" })
+   public int cellSize;
+
+   private GameBoard board;
+   private int[][] cells;
+   private BufferedImage image;
+   private Graphics2D g;
+
+   @Setup
+   public void setUp()
+   {
+      BoardFixture fixture = new BoardFixture(rows, cols, fill);
+      board = fixture.board;
+      board.setGeometry(0, 0, cellSize, new BasicStroke(2.0f));
+      cells = board.copyCells(null);
+      image = new BufferedImage(cols*cellSize + 2, rows*cellSize + 2, BufferedImage.TYPE_INT_RGB);
+      g = image.createGraphics();
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      g.dispose();
+   }
+
+   @Benchmark
+   public BufferedImage displayBoard()
+   {
+      g.setClip(null);
+      board.displayBoard(g, cells, false);
+      return image;
+   }
+
+   @Benchmark
+   public BufferedImage displayRow()
+   {
+      // the bottom row
+      g.setClip(0, (rows - 1)*cellSize, cols*cellSize, cellSize);
+      board.displayBoard(g, cells, false);
+      return image;
+   }
+
+} // end of class RenderBenchmark
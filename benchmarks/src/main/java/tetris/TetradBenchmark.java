@@ -0,0 +1,65 @@
+/**
+ * Class TetradBenchmark measures the block positions of a tetrad, asked for
+ * every move check (Tetrad.getBlockPos): into a buffer, in the current
+ * orientation and after a rotation either way, and as Points (allocated,
+ * for the drawing). The tetrads go round all types.
+ */
+
+package tetris;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TetradBenchmark
+{
+   private Tetrad[] tetrads = new Tetrad[Tetrad.TYPE_NR*4];
+   private int[] pos = new int[8];
+   private int ix = 0;
+
+   @Setup
+   public void setUp()
+   {
+      for ( int t = 0; t < tetrads.length; t++ ) {
+         tetrads[t] = Tetrad.next(t % Tetrad.TYPE_NR, 1);
+         tetrads[t].rotate(t / Tetrad.TYPE_NR);
+         tetrads[t].setPos(t % 12, t % 19);
+      }
+   }
+
+   /*
+    * the next tetrad
+    */
+   private Tetrad next()
+   {
+      if ( ++ix == tetrads.length ) ix = 0;
+      return tetrads[ix];
+   }
+
+   @Benchmark
+   public int[] blockPos()
+   {
+      next().getBlockPos(0, pos);
+      return pos;
+   }
+
+   @Benchmark
+   public int[] blockPosRotated()
+   {
+      next().getBlockPos( (ix & 1) == 0 ? -1 : 1, pos );
+      return pos;
+   }
+
+   @Benchmark
+   public Point[] blockPoints()
+   {
+      return next().getBlockPos(0);
+   }
+
+} // end of class TetradBenchmark